@@ -0,0 +1,116 @@
+package org.datadog.jmxfetch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The `aggregate` option of a configuration: the series of the matching attributes are rolled up
+ * by the values of the `by` tags when collected, and only the aggregated series are reported.
+ *
+ * <pre>
+ * aggregate:
+ *   function: sum  # sum, max, min or avg
+ *   by:
+ *     - topic
+ * </pre>
+ *
+ * <p>`aggregate: sum` rolls up all the series of an alias. The tags of the instance are always
+ * kept.
+ */
+public final class Aggregation {
+    static final int SUM = 0;
+    static final int MAX = 1;
+    static final int MIN = 2;
+    static final int AVG = 3;
+
+    private static final List<String> FUNCTIONS = Arrays.asList("sum", "max", "min", "avg");
+
+    private final int function;
+    private final Set<String> by;
+
+    private Aggregation(int function, Set<String> by) {
+        this.function = function;
+        this.by = by;
+    }
+
+    /**
+     * Parses the `aggregate` option of a configuration, returns null if not set. Throws an
+     * `IllegalArgumentException` if invalid.
+     */
+    static Aggregation parse(Object conf) {
+        if (conf == null) {
+            return null;
+        }
+        Object function = conf;
+        Object by = null;
+        if (conf instanceof Map) {
+            function = ((Map) conf).get("function");
+            by = ((Map) conf).get("by");
+        }
+        int index = function instanceof String ? FUNCTIONS.indexOf(function) : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid aggregate function `" + function + "`, expected one of " + FUNCTIONS);
+        }
+
+        Set<String> tagNames = new HashSet<String>();
+        if (by instanceof String) {
+            tagNames.add((String) by);
+        } else if (by instanceof Collection) {
+            for (Object tagName : (Collection) by) {
+                tagNames.add(String.valueOf(tagName));
+            }
+        } else if (by != null) {
+            throw new IllegalArgumentException("Invalid aggregate `by` tags: " + by);
+        }
+        return new Aggregation(index, Collections.unmodifiableSet(tagNames));
+    }
+
+    int getFunction() {
+        return function;
+    }
+
+    public Set<String> getBy() {
+        return by;
+    }
+
+    /**
+     * Returns the tags of the aggregated series: the `by` tags and the ones whose name is in
+     * `keptNames`.
+     */
+    String[] groupTags(String[] tags, Set<String> keptNames) {
+        List<String> grouped = new ArrayList<String>(tags.length);
+        for (String tag : tags) {
+            int separator = tag.indexOf(':');
+            String name = separator < 0 ? tag : tag.substring(0, separator);
+            if (by.contains(name) || keptNames.contains(name)) {
+                grouped.add(tag);
+            }
+        }
+        return TagPool.internTags(grouped);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Aggregation)) {
+            return false;
+        }
+        return function == ((Aggregation) other).function && by.equals(((Aggregation) other).by);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * function + by.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return FUNCTIONS.get(function) + " by " + by;
+    }
+}
@@ -12,7 +12,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 
+import org.datadog.jmxfetch.reporter.FanoutReporter;
+import org.datadog.jmxfetch.reporter.PrometheusReporter;
 import org.datadog.jmxfetch.reporter.Reporter;
+import org.datadog.jmxfetch.reporter.StatsdReporter;
 import org.datadog.jmxfetch.tasks.TaskMethod;
 import org.datadog.jmxfetch.tasks.TaskProcessException;
 import org.datadog.jmxfetch.tasks.TaskProcessor;
@@ -34,6 +37,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -42,12 +46,14 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -77,6 +83,7 @@ public class App {
             new ConcurrentHashMap<String, YamlParser>();
     private ArrayList<Instance> instances = new ArrayList<Instance>();
     private Map<String, Instance> brokenInstanceMap = new ConcurrentHashMap<String, Instance>();
+    private Map<Instance, Future<Void>> beanRefreshes = new HashMap<Instance, Future<Void>>();
     private AtomicBoolean reinit = new AtomicBoolean(false);
 
     private TaskProcessor collectionProcessor;
@@ -89,6 +96,25 @@ public class App {
     public App(AppConfig appConfig) {
         this.appConfig = appConfig;
 
+        if (appConfig.getReporter() != null) {
+            appConfig.getReporter().setGaugeHeartbeat(appConfig.getGaugeHeartbeat());
+        }
+        if (appConfig.getReporter() instanceof FanoutReporter) {
+            // Each sink spools into its own subdirectory, named after it
+            Set<String> spools = new HashSet<String>();
+            for (FanoutReporter.Sink sink : ((FanoutReporter) appConfig.getReporter()).getSinks()) {
+                String spool = sink.getName().replaceAll("[^A-Za-z0-9.-]", "_");
+                while (!spools.add(spool)) {
+                    spool += "_";
+                }
+                configureStatsdReporter(sink.getReporter(), spool);
+                configurePrometheusReporter(sink.getReporter());
+            }
+        } else {
+            configureStatsdReporter(appConfig.getReporter(), null);
+            configurePrometheusReporter(appConfig.getReporter());
+        }
+
         ExecutorService collectionThreadPool =
                 buildExecutorService(appConfig.getThreadPoolSize());
         collectionProcessor =
@@ -105,6 +131,33 @@ public class App {
         this.configs = getConfigs(appConfig);
     }
 
+    private void configureStatsdReporter(Reporter reporter, String spool) {
+        if (reporter instanceof StatsdReporter) {
+            StatsdReporter statsdReporter = (StatsdReporter) reporter;
+            if (appConfig.getStatsdMaxPacketSize() > 0) {
+                statsdReporter.setMaxPacketSize(appConfig.getStatsdMaxPacketSize());
+            }
+            statsdReporter.setBlocking(appConfig.isStatsdBlocking());
+            if (appConfig.getStatsdSpoolDirectory() != null) {
+                File directory = new File(appConfig.getStatsdSpoolDirectory());
+                statsdReporter.setSpool(
+                        spool == null ? directory : new File(directory, spool),
+                        appConfig.getStatsdSpoolMaxSize() * 1024L * 1024L);
+            }
+        }
+    }
+
+    private void configurePrometheusReporter(Reporter reporter) {
+        if (reporter instanceof PrometheusReporter && appConfig.getGaugeHeartbeat() > 0) {
+            // The unchanged gauges are sent once per heartbeat, a missed one is tolerated
+            PrometheusReporter prometheusReporter = (PrometheusReporter) reporter;
+            prometheusReporter.setStaleAfter(
+                    Math.max(
+                            prometheusReporter.getStaleAfter(),
+                            2L * appConfig.getGaugeHeartbeat() * appConfig.getCheckPeriod()));
+        }
+    }
+
     /**
      * Main entry of JMXFetch.
      *
@@ -486,11 +539,11 @@ public class App {
         loopCounter++;
 
         try {
-            List<InstanceTask<LinkedList<HashMap<String, Object>>>> getMetricsTasks =
-                    new ArrayList<InstanceTask<LinkedList<HashMap<String, Object>>>>();
+            List<InstanceTask<MetricBatch>> getMetricsTasks =
+                    new ArrayList<InstanceTask<MetricBatch>>();
 
             for (Instance instance : instances) {
-                getMetricsTasks.add(new MetricCollectionTask(instance));
+                getMetricsTasks.add(new MetricCollectionTask(instance, reporter));
             }
 
             if (!collectionProcessor.ready()) {
@@ -507,11 +560,11 @@ public class App {
                             getMetricsTasks,
                             appConfig.getCollectionTimeout(),
                             TimeUnit.SECONDS,
-                            new TaskMethod<LinkedList<HashMap<String, Object>>>() {
+                            new TaskMethod<MetricBatch>() {
                                 @Override
                                 public TaskStatusHandler invoke(
                                         Instance instance,
-                                        Future<LinkedList<HashMap<String, Object>>> future,
+                                        Future<MetricBatch> future,
                                         Reporter reporter) {
                                     return App.processCollectionResults(instance, future, reporter);
                                 }
@@ -539,6 +592,9 @@ public class App {
             }
         }
 
+        // Refresh bean lists in the background, collection keeps using the previous ones
+        scheduleBeanRefreshes();
+
         // Attempt to fix broken instances
         log.debug("Trying to recover broken instances...");
         fixBrokenInstances(reporter);
@@ -551,6 +607,30 @@ public class App {
         }
     }
 
+    private void scheduleBeanRefreshes() {
+        for (Iterator<Future<Void>> it = beanRefreshes.values().iterator(); it.hasNext(); ) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+
+        for (Instance instance : instances) {
+            if (!instance.isBeansRefreshDue() || beanRefreshes.containsKey(instance)) {
+                continue;
+            }
+            if (!recoveryProcessor.ready()) {
+                log.debug("Recovery processor busy, postponing bean refreshes");
+                return;
+            }
+            try {
+                beanRefreshes.put(
+                        instance, recoveryProcessor.submit(new BeanRefreshTask(instance)));
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to schedule the bean refresh of instance " + instance, e);
+            }
+        }
+    }
+
     private void fixBrokenInstances(Reporter reporter) {
         List<InstanceTask<Void>> fixInstanceTasks = new ArrayList<InstanceTask<Void>>();
 
@@ -558,6 +638,7 @@ public class App {
             // Clearing rates aggregator so we won't compute wrong rates if we can reconnect
             reporter.clearRatesAggregator(instance.getName());
             reporter.clearCountersAggregator(instance.getName());
+            reporter.clearGaugesAggregator(instance.getName());
 
             log.warn(
                     "Instance "
@@ -787,6 +868,10 @@ public class App {
                 .addInstanceStats(
                         checkName, instance.getName(),
                         metricCount, reporter.getServiceCheckCount(checkName),
+                        instance.getLastRefreshDuration(),
+                        reporter.getGaugeHeartbeat() > 0
+                                ? reporter.getSuppressedCount(instance.getName())
+                                : -1,
                         message, status);
     }
 
@@ -968,7 +1053,7 @@ public class App {
 
     static TaskStatusHandler processCollectionResults(
             Instance instance,
-            Future<LinkedList<HashMap<String, Object>>> future,
+            Future<MetricBatch> future,
             Reporter reporter) {
 
         TaskStatusHandler status = new TaskStatusHandler();
@@ -978,8 +1063,7 @@ public class App {
             int numberOfMetrics = 0;
 
             if (future.isDone()) {
-                LinkedList<HashMap<String, Object>> metrics;
-                metrics = future.get();
+                MetricBatch metrics = future.get();
                 numberOfMetrics = metrics.size();
 
                 status.setData(metrics);
@@ -1115,7 +1199,7 @@ public class App {
             String instanceMessage = null;
             String instanceStatus = Status.STATUS_OK;
             String scStatus = Status.STATUS_OK;
-            LinkedList<HashMap<String, Object>> metrics;
+            MetricBatch metrics;
 
             Integer numberOfMetrics = new Integer(0);
 
@@ -1128,7 +1212,7 @@ public class App {
                 status.raiseForStatus();
 
                 // If we get here all was good - metric count  available
-                metrics = (LinkedList<HashMap<String, Object>>) status.getData();
+                metrics = (MetricBatch) status.getData();
                 numberOfMetrics = metrics.size();
 
                 if (instance.isLimitReached()) {
@@ -1144,10 +1228,8 @@ public class App {
                     CustomLogger.laconic(log, Level.WARN, instanceMessage, 0);
                 }
 
-                if (numberOfMetrics > 0) {
-                    reporter.sendMetrics(
-                            metrics, instance.getName(), instance.getCanonicalRateConfig());
-                }
+                // Sent by the collection task
+                instance.recycle(metrics);
 
             } catch (TaskProcessException te) {
                 // This would be "fine" - no need to evict
@@ -11,6 +11,7 @@ import org.datadog.jmxfetch.reporter.ConsoleReporter;
 import org.datadog.jmxfetch.reporter.JsonReporter;
 import org.datadog.jmxfetch.reporter.Reporter;
 import org.datadog.jmxfetch.validator.Log4JLevelValidator;
+import org.datadog.jmxfetch.validator.NonNegativeIntegerValidator;
 import org.datadog.jmxfetch.validator.PositiveIntegerValidator;
 import org.datadog.jmxfetch.validator.ReporterValidator;
 
@@ -98,12 +99,58 @@ public class AppConfig {
             names = {"--reporter", "-r"},
             description =
                     "Reporter to use: should be either \"statsd:[STATSD_PORT]\", "
-                     + "\"console\" or \"json\"",
+                     + "\"statsd:unix://[STATSD_SOCKET_PATH]\", \"prometheus:[[HOST]:]PORT\", "
+                     + "\"console\" or \"json\", or a comma-separated list of those to send "
+                     + "to each of them asynchronously",
             validateWith = ReporterValidator.class,
             converter = ReporterConverter.class,
             required = false)
     private Reporter reporter;
 
+    @Parameter(
+            names = {"--statsd_max_packet_size"},
+            description =
+                    "Maximum size in bytes of the datagrams sent by the statsd reporter "
+                    + "(default to 1432 over UDP and 8192 over a Unix socket)",
+            validateWith = PositiveIntegerValidator.class,
+            required = false)
+    private int statsdMaxPacketSize;
+
+    @Parameter(
+            names = {"--statsd_blocking"},
+            description =
+                    "Block while the statsd socket buffer is full, "
+                    + "rather than drop the metrics that do not fit",
+            required = false)
+    @Builder.Default
+    private boolean statsdBlocking = false;
+
+    @Parameter(
+            names = {"--statsd_spool_directory"},
+            description =
+                    "Directory to spool the statsd metrics that can not be sent into, to send "
+                    + "them once statsd accepts them again. With several reporters, each statsd "
+                    + "one spools into a subdirectory named after it",
+            required = false)
+    private String statsdSpoolDirectory;
+
+    @Parameter(
+            names = {"--statsd_spool_max_size"},
+            description = "Maximum size in megabytes of the statsd spool",
+            validateWith = PositiveIntegerValidator.class,
+            required = false)
+    @Builder.Default
+    private int statsdSpoolMaxSize = 64;
+
+    @Parameter(
+            names = {"--gauge_heartbeat"},
+            description =
+                    "Skip the gauges whose value did not change, sending them again only every "
+                    + "N collections (default to 0 = send the gauges at every collection)",
+            validateWith = NonNegativeIntegerValidator.class,
+            required = false)
+    private int gaugeHeartbeat;
+
     @Parameter(
             names = {"--check", "-c"},
             description = "Yaml file name to read (must be in the confd directory)",
@@ -323,6 +370,28 @@ public class AppConfig {
         return reporter;
     }
 
+    /** Returns the maximum size of the statsd datagrams, 0 if not set. */
+    public int getStatsdMaxPacketSize() {
+        return statsdMaxPacketSize;
+    }
+
+    public boolean isStatsdBlocking() {
+        return statsdBlocking;
+    }
+
+    public String getStatsdSpoolDirectory() {
+        return statsdSpoolDirectory;
+    }
+
+    public int getStatsdSpoolMaxSize() {
+        return statsdSpoolMaxSize;
+    }
+
+    /** Returns the number of collections after which an unchanged gauge is sent, 0 if not set. */
+    public int getGaugeHeartbeat() {
+        return gaugeHeartbeat;
+    }
+
     public List<String> getYamlFileList() {
         return yamlFileList;
     }
@@ -0,0 +1,208 @@
+package org.datadog.jmxfetch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.ObjectName;
+
+/**
+ * Per bean state shared by all the attributes of a bean: its parsed name, its default tags and
+ * the groups captured by `bean_regex`.
+ *
+ * <p>The result of the `bean_regex` evaluation of each filter is cached so that a bean is
+ * matched at most once against a given filter, whatever its number of attributes.
+ */
+public class BeanContext {
+    private static final String[] NO_MATCH = new String[0];
+
+    private final ObjectName beanName;
+    private final String beanStringName;
+    private final String domain;
+    private final Map<String, String> beanParameters;
+    private final String instanceName;
+    private final Map<String, String> instanceTags;
+    private final boolean emptyDefaultHostname;
+    private List<String> defaultTags;
+    private List<String> cassandraDefaultTags;
+    private Set<String> instanceTagNames;
+    private final IdentityHashMap<Filter, String[]> beanRegexMatches =
+            new IdentityHashMap<Filter, String[]>();
+
+    /** Builds the context of the given bean, collected by the given instance. */
+    public BeanContext(
+            ObjectName beanName,
+            String instanceName,
+            Map<String, String> instanceTags,
+            boolean emptyDefaultHostname) {
+        this.beanName = beanName;
+        this.beanStringName = beanName.toString();
+        // A bean name is formatted like that:
+        // org.apache.cassandra.db:type=Caches,keyspace=system,cache=HintsColumnFamilyKeyCache
+        // i.e. : domain:bean_parameter1,bean_parameter2
+        // Values may be quoted, and then hold any character. Example:
+        // some.domain:name="some.bean.0.0.0.0:80,some-metric"
+        this.domain = beanName.getDomain();
+        this.beanParameters =
+                Collections.unmodifiableMap(
+                        new HashMap<String, String>(beanName.getKeyPropertyList()));
+        this.instanceName = instanceName;
+        this.instanceTags = instanceTags;
+        this.emptyDefaultHostname = emptyDefaultHostname;
+    }
+
+    public ObjectName getBeanName() {
+        return beanName;
+    }
+
+    public String getBeanStringName() {
+        return beanStringName;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /** Returns the key properties of the bean name, values are kept quoted. */
+    public Map<String, String> getBeanParameters() {
+        return beanParameters;
+    }
+
+    /** Returns whether the bean metrics follow the CASSANDRA-4009 naming, when aliasing is on. */
+    boolean isCassandraMetricsBean() {
+        return JmxAttribute.CASSANDRA_DOMAIN.equals(domain);
+    }
+
+    /** Returns the names of the tags set for the whole instance, whatever the bean. */
+    Set<String> getInstanceTagNames() {
+        if (instanceTagNames == null) {
+            Set<String> names = new HashSet<String>();
+            names.add("instance");
+            names.add("host");
+            if (instanceTags != null) {
+                for (Map.Entry<String, String> tag : instanceTags.entrySet()) {
+                    // Tags listed as `name:value` strings have no value
+                    String name = tag.getKey();
+                    int separator = name.indexOf(':');
+                    if (tag.getValue() == null && separator >= 0) {
+                        name = name.substring(0, separator);
+                    }
+                    names.add(name);
+                }
+            }
+            instanceTagNames = Collections.unmodifiableSet(names);
+        }
+        return instanceTagNames;
+    }
+
+    /**
+     * Returns the sanitized tags of all the bean metrics: instance, domain, bean parameters and
+     * instance tags. The list is shared and must not be mutated.
+     */
+    List<String> getDefaultTags(boolean cassandraAliasing) {
+        if (cassandraAliasing && isCassandraMetricsBean()) {
+            if (cassandraDefaultTags == null) {
+                cassandraDefaultTags = buildDefaultTags(getCassandraBeanTags(beanParameters));
+            }
+            return cassandraDefaultTags;
+        }
+        if (defaultTags == null) {
+            List<String> beanTags = new ArrayList<String>(beanParameters.size());
+            for (Map.Entry<String, String> param : beanParameters.entrySet()) {
+                beanTags.add(param.getKey() + ":" + param.getValue());
+            }
+            defaultTags = buildDefaultTags(beanTags);
+        }
+        return defaultTags;
+    }
+
+    private List<String> buildDefaultTags(List<String> beanTags) {
+        List<String> tags = new ArrayList<String>();
+        tags.add("instance:" + instanceName);
+        tags.add("jmx_domain:" + domain);
+        tags.addAll(beanTags);
+        if (instanceTags != null) {
+            for (Map.Entry<String, String> tag : instanceTags.entrySet()) {
+                if (tag.getValue() != null) {
+                    tags.add(tag.getKey() + ":" + tag.getValue());
+                } else {
+                    tags.add(tag.getKey());
+                }
+            }
+        }
+
+        List<String> sanitizedTags = sanitizeParameters(tags);
+        if (emptyDefaultHostname) {
+            sanitizedTags.add("host:");
+        }
+        for (int i = 0; i < sanitizedTags.size(); i++) {
+            sanitizedTags.set(i, TagPool.intern(sanitizedTags.get(i)));
+        }
+        return Collections.unmodifiableList(sanitizedTags);
+    }
+
+    /**
+     * Sanitize MBean parameter names and values, i.e. - Rename parameter names conflicting with
+     * existing tags - Remove illegal characters
+     */
+    private static List<String> sanitizeParameters(List<String> beanParametersList) {
+        List<String> defaultTagsList = new ArrayList<String>(beanParametersList.size() + 1);
+        for (String rawBeanParameter : beanParametersList) {
+            // Remove `|` characters
+            String beanParameter = rawBeanParameter.replace("|", "");
+
+            // 'host' parameter is renamed to 'bean_host'
+            if (beanParameter.startsWith("host:")) {
+                defaultTagsList.add("bean_host:" + beanParameter.substring("host:".length()));
+            } else if (beanParameter.endsWith(":")) {
+                // If the parameter's value is empty, remove the colon in the tag
+                defaultTagsList.add(beanParameter.substring(0, beanParameter.length() - 1));
+            } else {
+                defaultTagsList.add(beanParameter);
+            }
+        }
+
+        return defaultTagsList;
+    }
+
+    private static List<String> getCassandraBeanTags(Map<String, String> beanParameters) {
+        List<String> tags = new ArrayList<String>();
+        for (Map.Entry<String, String> param : beanParameters.entrySet()) {
+            if (param.getKey().equals("name")) {
+                // This is already in the alias
+                continue;
+            } else if (param.getKey().equals("scope")) {
+                String type = beanParameters.get("type");
+                tags.add(type + ":" + param.getValue());
+            } else {
+                tags.add(param.getKey() + ":" + param.getValue());
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Returns the groups captured by the first `bean_regex` of the filter matching the bean, or
+     * null if none of them matches.
+     */
+    String[] matchBeanRegexes(Filter filter) {
+        String[] groups = beanRegexMatches.get(filter);
+        if (groups == null) {
+            groups = NO_MATCH;
+            List<BeanRegex> beanRegexes = filter.getBeanRegexes();
+            for (BeanRegex beanRegex : beanRegexes) {
+                String[] captured = beanRegex.match(beanStringName);
+                if (captured != null) {
+                    groups = captured;
+                    break;
+                }
+            }
+            beanRegexMatches.put(filter, groups);
+        }
+        return groups == NO_MATCH ? null : groups;
+    }
+}
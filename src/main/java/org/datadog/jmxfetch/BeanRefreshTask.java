@@ -0,0 +1,23 @@
+package org.datadog.jmxfetch;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+class BeanRefreshTask extends InstanceTask<Void> {
+    BeanRefreshTask(Instance instance) {
+        super(instance);
+        setWarning("Unable to refresh bean list for instance " + instance);
+    }
+
+    @Override
+    public Void call() throws Exception {
+        // Nobody waits for the result, failures are only logged: the previous attributes keep
+        // being collected and the refresh is attempted again on the next iteration
+        try {
+            instance.refreshBeans();
+        } catch (Exception e) {
+            log.warn(getWarning(), e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,262 @@
+package org.datadog.jmxfetch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled `bean_regex` along with the literal substrings any matching bean name must contain.
+ *
+ * <p>Bean names are first checked against these literals with a plain substring search, so most
+ * beans are rejected without running the regex engine.
+ */
+class BeanRegex {
+    private static final String[] NO_LITERALS = new String[0];
+
+    private final Pattern pattern;
+    private final String[] requiredLiterals;
+
+    BeanRegex(String regex) {
+        this.pattern = Pattern.compile(regex);
+        this.requiredLiterals = getRequiredLiterals(regex);
+    }
+
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Matches the whole bean name against the regex.
+     *
+     * @return the captured groups, group 0 being the bean name itself, or null if it does not match
+     */
+    String[] match(String beanName) {
+        for (String literal : requiredLiterals) {
+            if (beanName.indexOf(literal) < 0) {
+                return null;
+            }
+        }
+
+        Matcher matcher = pattern.matcher(beanName);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        String[] groups = new String[matcher.groupCount() + 1];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = matcher.group(i);
+        }
+        return groups;
+    }
+
+    @Override
+    public String toString() {
+        return pattern.pattern();
+    }
+
+    String[] getRequiredLiterals() {
+        return requiredLiterals;
+    }
+
+    /**
+     * Extracts the literal substrings that appear in every string matching the regex.
+     *
+     * <p>The extraction is conservative: only the literal runs found outside of groups and
+     * character classes are kept, and nothing is returned for regexes using top-level
+     * alternations, inline flags or quoting, as their literals might not be required as is.
+     */
+    static String[] getRequiredLiterals(String regex) {
+        if (regex.contains("\\Q") || hasSpecialConstruct(regex)) {
+            return NO_LITERALS;
+        }
+
+        List<String> literals = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        boolean lastIsLiteral = false;
+        int idx = 0;
+        int length = regex.length();
+
+        while (idx < length) {
+            char ch = regex.charAt(idx);
+            switch (ch) {
+                case '|':
+                    // Top-level alternation, no literal is required anymore
+                    return NO_LITERALS;
+                case '(':
+                    idx = skipGroup(regex, idx);
+                    lastIsLiteral = flush(current, literals);
+                    continue;
+                case '[':
+                    idx = skipCharacterClass(regex, idx);
+                    lastIsLiteral = flush(current, literals);
+                    continue;
+                case '*':
+                case '?':
+                    if (lastIsLiteral) {
+                        // The previous character may be absent
+                        current.setLength(current.length() - 1);
+                    }
+                    lastIsLiteral = flush(current, literals);
+                    idx = skipQuantifierModifier(regex, idx + 1);
+                    continue;
+                case '+':
+                    lastIsLiteral = flush(current, literals);
+                    idx = skipQuantifierModifier(regex, idx + 1);
+                    continue;
+                case '{':
+                    int end = regex.indexOf('}', idx);
+                    if (end < 0) {
+                        return NO_LITERALS;
+                    }
+                    if (lastIsLiteral && regex.substring(idx + 1, end).trim().startsWith("0")) {
+                        current.setLength(current.length() - 1);
+                    }
+                    lastIsLiteral = flush(current, literals);
+                    idx = skipQuantifierModifier(regex, end + 1);
+                    continue;
+                case '.':
+                case '^':
+                case '$':
+                    lastIsLiteral = flush(current, literals);
+                    idx++;
+                    continue;
+                case '\\':
+                    if (idx + 1 >= length) {
+                        return NO_LITERALS;
+                    }
+                    char escaped = regex.charAt(idx + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        // Character classes, anchors, back references, control characters...
+                        lastIsLiteral = flush(current, literals);
+                        idx = skipEscape(regex, idx);
+                    } else {
+                        current.append(escaped);
+                        lastIsLiteral = true;
+                        idx += 2;
+                    }
+                    continue;
+                default:
+                    current.append(ch);
+                    lastIsLiteral = true;
+                    idx++;
+            }
+        }
+        flush(current, literals);
+
+        return literals.toArray(new String[literals.size()]);
+    }
+
+    /** Inline flags and look-arounds, i.e. any group starting with `(?` but `(?:`. */
+    private static boolean hasSpecialConstruct(String regex) {
+        int idx = regex.indexOf("(?");
+        while (idx >= 0) {
+            if (idx + 2 >= regex.length() || regex.charAt(idx + 2) != ':') {
+                return true;
+            }
+            idx = regex.indexOf("(?", idx + 2);
+        }
+        return false;
+    }
+
+    private static boolean flush(StringBuilder current, List<String> literals) {
+        if (current.length() > 0) {
+            literals.add(current.toString());
+            current.setLength(0);
+        }
+        return false;
+    }
+
+    private static int skipQuantifierModifier(String regex, int idx) {
+        if (idx < regex.length() && (regex.charAt(idx) == '?' || regex.charAt(idx) == '+')) {
+            return idx + 1;
+        }
+        return idx;
+    }
+
+    /** Returns the index following the escape sequence starting at idx. */
+    private static int skipEscape(String regex, int idx) {
+        int length = regex.length();
+        char escaped = regex.charAt(idx + 1);
+        idx += 2;
+        if (idx < length && regex.charAt(idx) == '{') {
+            // \p{Lower}, \x{h..h}, \k<name>...
+            int end = regex.indexOf('}', idx);
+            return end < 0 ? length : end + 1;
+        }
+        switch (escaped) {
+            case 'x':
+                return Math.min(idx + 2, length);
+            case 'u':
+                return Math.min(idx + 4, length);
+            case 'c':
+                return Math.min(idx + 1, length);
+            case 'k':
+                int end = regex.indexOf('>', idx);
+                return end < 0 ? length : end + 1;
+            default:
+                // Octal values and back references
+                if (Character.isDigit(escaped)) {
+                    while (idx < length && Character.isDigit(regex.charAt(idx))) {
+                        idx++;
+                    }
+                }
+                return idx;
+        }
+    }
+
+    /** Returns the index following the character class starting at idx. */
+    private static int skipCharacterClass(String regex, int idx) {
+        int length = regex.length();
+        int depth = 0;
+        // A closing bracket right after the opening one (or its negation) is a literal
+        int first = idx + 1;
+        if (first < length && regex.charAt(first) == '^') {
+            first++;
+        }
+        while (idx < length) {
+            char ch = regex.charAt(idx);
+            if (ch == '\\') {
+                idx += 2;
+                continue;
+            }
+            if (ch == '[') {
+                depth++;
+            } else if (ch == ']' && idx != first) {
+                depth--;
+                if (depth == 0) {
+                    return idx + 1;
+                }
+            }
+            idx++;
+        }
+        return length;
+    }
+
+    /** Returns the index following the group starting at idx. */
+    private static int skipGroup(String regex, int idx) {
+        int length = regex.length();
+        int depth = 0;
+        while (idx < length) {
+            char ch = regex.charAt(idx);
+            if (ch == '\\') {
+                idx += 2;
+                continue;
+            }
+            if (ch == '[') {
+                idx = skipCharacterClass(regex, idx);
+                continue;
+            }
+            if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+                if (depth == 0) {
+                    return idx + 1;
+                }
+            }
+            idx++;
+        }
+        return length;
+    }
+}
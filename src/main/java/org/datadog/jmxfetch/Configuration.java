@@ -6,24 +6,32 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
 
 public class Configuration {
 
-    private LinkedHashMap<String, Object> conf;
-    private Filter include;
-    private Filter exclude;
+    private final LinkedHashMap<String, Object> conf;
+    private final Filter include;
+    private final Filter exclude;
+    private final int priority;
+    private final Aggregation aggregation;
 
     /**
      * Access configuration elements more easily
      *
      * <p>Also provides helper methods to extract common information among filters.
+     *
+     * <p>Configurations are shared between instances once parsed, they must not be mutated.
      */
     public Configuration(LinkedHashMap<String, Object> conf) {
         this.conf = conf;
         this.include = new Filter(conf.get("include"));
         this.exclude = new Filter(conf.get("exclude"));
+        Object priority = conf.get("priority");
+        this.priority = priority instanceof Number ? ((Number) priority).intValue() : 0;
+        this.aggregation = Aggregation.parse(conf.get("aggregate"));
     }
 
     public LinkedHashMap<String, Object> getConf() {
@@ -38,10 +46,42 @@ public class Configuration {
         return exclude;
     }
 
+    /**
+     * Returns the `priority` of the configuration, 0 by default. Attributes matching higher
+     * priority configurations are kept first when the metric limit is reached.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the `aggregate` option of the configuration, null if the series of the matching
+     * attributes are reported as is.
+     */
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
     public String toString() {
         return "include: " + this.include + " - exclude: " + this.exclude;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Configuration)) {
+            return false;
+        }
+        return conf.equals(((Configuration) other).conf);
+    }
+
+    @Override
+    public int hashCode() {
+        return conf.hashCode();
+    }
+
     private Boolean hasInclude() {
         return getInclude() != null;
     }
@@ -53,7 +93,7 @@ public class Configuration {
      * @return a configuration list
      */
     private static LinkedList<Configuration> getIncludeConfigurationList(
-            LinkedList<Configuration> configurationList) {
+            List<Configuration> configurationList) {
         LinkedList<Configuration> includeConfigList =
                 new LinkedList<Configuration>(configurationList);
         Iterator<Configuration> confItr = includeConfigList.iterator();
@@ -232,7 +272,7 @@ public class Configuration {
      * @return common bean pattern strings
      */
     public static LinkedList<String> getGreatestCommonScopes(
-            LinkedList<Configuration> configurationList) {
+            List<Configuration> configurationList) {
         LinkedList<Configuration> includeConfigList =
                 getIncludeConfigurationList(configurationList);
         HashMap<String, LinkedList<Filter>> includeFiltersByDomain =
@@ -6,11 +6,12 @@ import java.util.Set;
 import java.util.regex.Pattern;
 
 class Filter {
-    HashMap<String, Object> filter;
-    Pattern domainRegex;
-    ArrayList<Pattern> beanRegexes = null;
-    ArrayList<String> excludeTags = null;
-    HashMap<String, String> additionalTags = null;
+    final HashMap<String, Object> filter;
+    // Lazily computed, filters may be shared by instances running on different threads
+    volatile Pattern domainRegex;
+    volatile ArrayList<BeanRegex> beanRegexes = null;
+    volatile ArrayList<String> excludeTags = null;
+    volatile HashMap<String, String> additionalTags = null;
 
     /**
      * A simple class to manipulate include/exclude filter elements more easily A filter may
@@ -80,26 +81,26 @@ class Filter {
         return toStringArrayList(beanNames);
     }
 
-    private static ArrayList<Pattern> toPatternArrayList(final Object toCast) {
-        ArrayList<Pattern> patternArrayList = new ArrayList<Pattern>();
+    private static ArrayList<BeanRegex> toBeanRegexArrayList(final Object toCast) {
+        ArrayList<BeanRegex> beanRegexArrayList = new ArrayList<BeanRegex>();
         ArrayList<String> stringArrayList = toStringArrayList(toCast);
         for (String string : stringArrayList) {
-            patternArrayList.add(Pattern.compile(string));
+            beanRegexArrayList.add(new BeanRegex(string));
         }
 
-        return patternArrayList;
+        return beanRegexArrayList;
     }
 
-    public ArrayList<Pattern> getBeanRegexes() {
-        // Return bean regexes as an ArrayList of Pattern whether it's defined as
+    public ArrayList<BeanRegex> getBeanRegexes() {
+        // Return bean regexes as an ArrayList of BeanRegex whether it's defined as
         // a list or not
 
         if (this.beanRegexes == null) {
             if (filter.get("bean_regex") == null) {
-                this.beanRegexes = new ArrayList<Pattern>();
+                this.beanRegexes = new ArrayList<BeanRegex>();
             } else {
                 final Object beanRegexNames = filter.get("bean_regex");
-                this.beanRegexes = toPatternArrayList(beanRegexNames);
+                this.beanRegexes = toBeanRegexArrayList(beanRegexNames);
             }
         }
 
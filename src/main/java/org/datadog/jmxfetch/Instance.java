@@ -1,6 +1,8 @@
 package org.datadog.jmxfetch;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -14,15 +16,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.management.MBeanAttributeInfo;
 import javax.management.ObjectName;
 import javax.security.auth.login.FailedLoginException;
@@ -64,12 +69,25 @@ public class Instance {
                     "java.util.Map");
     private static final List<String> MULTI_TYPES =
             Arrays.asList("javax.management.openmbean.TabularData");
-    private static final int MAX_RETURNED_METRICS = 350;
-    private static final int DEFAULT_REFRESH_BEANS_PERIOD = 600;
     public static final String PROCESS_NAME_REGEX = "process_name_regex";
     public static final String JVM_DIRECT = "jvm_direct";
     public static final String ATTRIBUTE = "Attribute: ";
 
+    private static final Comparator<ObjectName> BEAN_ORDER =
+        new Comparator<ObjectName>() {
+            @Override
+            public int compare(ObjectName first, ObjectName second) {
+                return first.getCanonicalName().compareTo(second.getCanonicalName());
+            }
+        };
+    private static final Comparator<MBeanAttributeInfo> ATTRIBUTE_ORDER =
+        new Comparator<MBeanAttributeInfo>() {
+            @Override
+            public int compare(MBeanAttributeInfo first, MBeanAttributeInfo second) {
+                return first.getName().compareTo(second.getName());
+            }
+        };
+
     private static final ThreadLocal<Yaml> YAML =
         new ThreadLocal<Yaml>() {
             @Override
@@ -78,147 +96,89 @@ public class Instance {
             }
         };
 
+    // Metric configurations coming from resources and files are parsed once per process, keyed
+    // by resource name or absolute file path.
+    private static final ConcurrentHashMap<String, List<Configuration>> SHARED_CONFIGURATIONS =
+            new ConcurrentHashMap<String, List<Configuration>>();
+    // Instances with identical configurations (e.g. auto-discovery templates) share one list.
+    private static final Interner<List<Configuration>> CONFIGURATION_LISTS =
+            Interners.newWeakInterner();
+
     private Set<ObjectName> beans;
     private LinkedList<String> beanScopes;
-    private LinkedList<Configuration> configurationList = new LinkedList<Configuration>();
-    private LinkedList<JmxAttribute> matchingAttributes;
+    private List<Configuration> configurationList;
+    // Swapped as a whole by bean refreshes running on another thread
+    private volatile LinkedList<JmxAttribute> matchingAttributes;
+    private LinkedList<JmxAttribute> collectedAttributes;
     private HashSet<JmxAttribute> failingAttributes;
-    private Integer refreshBeansPeriod;
+    private final InstanceConfig config;
+    private final MetricDescriptors descriptors = new MetricDescriptors();
+    // Generation of the refresh that built the matching attributes, published after them
+    private volatile int matchingGeneration;
+    private int prunedGeneration;
+    private final AtomicReference<MetricBatch> spareBatch = new AtomicReference<MetricBatch>();
+    // The batch handed out by the last collection, the only one recycled
+    private volatile MetricBatch collectedBatch;
+    private MetricBatch emptyBatch;
     private long lastCollectionTime;
-    private Integer minCollectionPeriod;
-    private long lastRefreshTime;
-    private LinkedHashMap<String, Object> instanceMap;
-    private LinkedHashMap<String, Object> initConfig;
-    private String instanceName;
-    private LinkedHashMap<String, String> tags;
-    private String checkName;
-    private int maxReturnedMetrics;
-    private boolean limitReached;
+    private volatile long lastRefreshTime;
+    private volatile long lastRefreshDuration;
+    private volatile boolean limitReached;
     private Connection connection;
     private AppConfig appConfig;
-    private Boolean cassandraAliasing;
-    private boolean emptyDefaultHostname;
 
     /** Constructor, instantiates Instance based of a previous instance and appConfig. */
     public Instance(Instance instance, AppConfig appConfig) {
-        this(
-                instance.getInstanceMap() != null
-                        ? new LinkedHashMap<String, Object>(instance.getInstanceMap())
-                        : null,
-                instance.getInitConfig() != null
-                        ? new LinkedHashMap<String, Object>(instance.getInitConfig())
-                        : null,
-                instance.getCheckName(),
-                appConfig);
+        this(instance.getConfig(), appConfig, instance.configurationList);
     }
 
     /** Default constructor, builds an Instance from the provided instance map and init configs. */
-    @SuppressWarnings("unchecked")
     public Instance(
             LinkedHashMap<String, Object> instanceMap,
             LinkedHashMap<String, Object> initConfig,
             String checkName,
             AppConfig appConfig) {
+        this(new InstanceConfig(instanceMap, initConfig, checkName, appConfig), appConfig, null);
+    }
+
+    /**
+     * Builds an Instance, reusing the given configuration list when not null instead of parsing
+     * the configurations again.
+     */
+    private Instance(
+            InstanceConfig config, AppConfig appConfig, List<Configuration> configurationList) {
         this.appConfig = appConfig;
-        this.instanceMap =
-                instanceMap != null ? new LinkedHashMap<String, Object>(instanceMap) : null;
-        this.initConfig = initConfig != null ? new LinkedHashMap<String, Object>(initConfig) : null;
-        this.instanceName = (String) instanceMap.get("name");
-        this.tags = getTagsMap(instanceMap.get("tags"), appConfig);
-        this.checkName = checkName;
+        this.config = config;
         this.matchingAttributes = new LinkedList<JmxAttribute>();
         this.failingAttributes = new HashSet<JmxAttribute>();
-        if (appConfig.getRefreshBeansPeriod() == null) {
-            this.refreshBeansPeriod = (Integer) instanceMap.get("refresh_beans");
-            if (this.refreshBeansPeriod == null) {
-                this.refreshBeansPeriod =
-                        DEFAULT_REFRESH_BEANS_PERIOD; // Make sure to refresh the beans list every
-                // 10 minutes
-                // Useful because sometimes if the application restarts, jmxfetch might read
-                // a jmxtree that is not completely initialized and would be missing some attributes
-            }
-        } else {
-            // Allow global overrides
-            this.refreshBeansPeriod = appConfig.getRefreshBeansPeriod();
-        }
-
-        this.minCollectionPeriod = (Integer) instanceMap.get("min_collection_interval");
-        if (this.minCollectionPeriod == null && initConfig != null) {
-            this.minCollectionPeriod = (Integer) initConfig.get("min_collection_interval");
-        }
-
-        try {
-            this.emptyDefaultHostname = (Boolean) this.instanceMap.get("empty_default_hostname");
-        } catch (NullPointerException e) {
-            this.emptyDefaultHostname = false;
-        }
-
         this.lastCollectionTime = 0;
         this.lastRefreshTime = 0;
+        this.lastRefreshDuration = -1;
         this.limitReached = false;
-        Object maxReturnedMetrics = this.instanceMap.get("max_returned_metrics");
-        if (maxReturnedMetrics == null) {
-            this.maxReturnedMetrics = MAX_RETURNED_METRICS;
-        } else {
-            this.maxReturnedMetrics = (Integer) maxReturnedMetrics;
-        }
-
-        // Generate an instance name that will be send as a tag with the metrics
-        if (this.instanceName == null) {
-            if (this.instanceMap.get(PROCESS_NAME_REGEX) != null) {
-                this.instanceName = this.checkName + "-" + this.instanceMap.get(PROCESS_NAME_REGEX);
-            } else if (this.instanceMap.get("host") != null) {
-                this.instanceName =
-                        this.checkName
-                                + "-"
-                                + this.instanceMap.get("host")
-                                + "-"
-                                + this.instanceMap.get("port");
-            } else {
-                log.warn(
-                        "Cannot determine a unique instance name. "
-                                + "Please define a name in your instance configuration");
-                this.instanceName = this.checkName;
-            }
-        }
-
-        // Alternative aliasing for CASSANDRA-4009 metrics
-        // More information: https://issues.apache.org/jira/browse/CASSANDRA-4009
-        this.cassandraAliasing = (Boolean) instanceMap.get("cassandra_aliasing");
-        if (this.cassandraAliasing == null) {
-            this.cassandraAliasing = false;
-        }
-
-        // In case the configuration to match beans is not specified in the "instance" parameter but
-        // in the initConfig one
-        Object instanceConf = this.instanceMap.get("conf");
-        if (instanceConf == null && this.initConfig != null) {
-            instanceConf = this.initConfig.get("conf");
-        }
 
-        if (instanceConf == null) {
-            log.warn("Cannot find a \"conf\" section in " + this.instanceName);
+        if (configurationList != null) {
+            this.configurationList = configurationList;
         } else {
-            for (LinkedHashMap<String, Object> conf :
-                    (ArrayList<LinkedHashMap<String, Object>>) (instanceConf)) {
-                configurationList.add(new Configuration(conf));
-            }
+            this.configurationList = loadConfigurationList(appConfig);
         }
+    }
+
+    private List<Configuration> loadConfigurationList(AppConfig appConfig) {
+        List<Configuration> configurationList =
+                new ArrayList<Configuration>(config.getConfigurations());
 
         loadMetricConfigFiles(appConfig, configurationList);
         loadMetricConfigResources(appConfig, configurationList);
 
-        String gcMetricConfig = "old-gc-default-jmx-metrics.yaml";
+        String gcMetricConfig =
+                config.isNewGcMetrics()
+                        ? "new-gc-default-jmx-metrics.yaml"
+                        : "old-gc-default-jmx-metrics.yaml";
 
-        if (this.initConfig != null) {
-            Boolean newGcMetrics = (Boolean) this.initConfig.get("new_gc_metrics");
-            if (newGcMetrics != null && newGcMetrics) {
-                gcMetricConfig = "new-gc-default-jmx-metrics.yaml";
-            }
-        }
+        configurationList.addAll(loadDefaultConfig("default-jmx-metrics.yaml"));
+        configurationList.addAll(loadDefaultConfig(gcMetricConfig));
 
-        loadDefaultConfig("default-jmx-metrics.yaml");
-        loadDefaultConfig(gcMetricConfig);
+        return CONFIGURATION_LISTS.intern(Collections.unmodifiableList(configurationList));
     }
 
     public static boolean isDirectInstance(LinkedHashMap<String, Object> configInstance) {
@@ -226,24 +186,54 @@ public class Instance {
         return directInstance instanceof Boolean && (Boolean) directInstance;
     }
 
-    private void loadDefaultConfig(String configResourcePath) {
-        ArrayList<LinkedHashMap<String, Object>> defaultConf =
-                (ArrayList<LinkedHashMap<String, Object>>)
-                        YAML.get().load(this.getClass().getResourceAsStream(configResourcePath));
-        for (LinkedHashMap<String, Object> conf : defaultConf) {
-            configurationList.add(new Configuration(conf));
+    /** Builds an immutable configuration list out of a parsed YAML list of configurations. */
+    private static List<Configuration> toConfigurationList(
+            ArrayList<LinkedHashMap<String, Object>> confs) {
+        List<Configuration> configurations = new ArrayList<Configuration>(confs.size());
+        for (LinkedHashMap<String, Object> conf : confs) {
+            configurations.add(new Configuration(conf));
+        }
+        return Collections.unmodifiableList(configurations);
+    }
+
+    /**
+     * Caches the configurations parsed from the given key (resource name or file path), returns
+     * the first ones cached if another thread parsed them concurrently.
+     */
+    private static List<Configuration> cacheConfigurations(
+            String key, List<Configuration> configurations) {
+        List<Configuration> cached = SHARED_CONFIGURATIONS.putIfAbsent(key, configurations);
+        return (cached != null) ? cached : configurations;
+    }
+
+    private static List<Configuration> loadDefaultConfig(String configResourcePath) {
+        String key = "default:" + configResourcePath;
+        List<Configuration> configurations = SHARED_CONFIGURATIONS.get(key);
+        if (configurations == null) {
+            ArrayList<LinkedHashMap<String, Object>> defaultConf =
+                    (ArrayList<LinkedHashMap<String, Object>>)
+                            YAML.get().load(Instance.class.getResourceAsStream(configResourcePath));
+            configurations = cacheConfigurations(key, toConfigurationList(defaultConf));
         }
+        return configurations;
     }
 
     @VisibleForTesting
     static void loadMetricConfigFiles(
-            AppConfig appConfig, LinkedList<Configuration> configurationList) {
+            AppConfig appConfig, List<Configuration> configurationList) {
         List<String> metricConfigFiles = appConfig.getMetricConfigFiles();
         if (metricConfigFiles != null && !metricConfigFiles.isEmpty()) {
             log.warn("Loading files via metricConfigFiles setting is deprecated.  Please "
                     + "migrate to using standard agent config files in the conf.d directory.");
             for (String fileName : metricConfigFiles) {
                 String yamlPath = new File(fileName).getAbsolutePath();
+                String key = "file:" + yamlPath;
+                List<Configuration> configurations = SHARED_CONFIGURATIONS.get(key);
+                if (configurations != null) {
+                    configurationList.addAll(configurations);
+                    continue;
+                }
+
                 FileInputStream yamlInputStream = null;
                 log.info("Reading metric config file " + yamlPath);
                 try {
@@ -251,9 +241,8 @@ public class Instance {
                     ArrayList<LinkedHashMap<String, Object>> confs =
                             (ArrayList<LinkedHashMap<String, Object>>)
                                     YAML.get().load(yamlInputStream);
-                    for (LinkedHashMap<String, Object> conf : confs) {
-                        configurationList.add(new Configuration(conf));
-                    }
+                    configurationList.addAll(
+                            cacheConfigurations(key, toConfigurationList(confs)));
                 } catch (FileNotFoundException e) {
                     log.warn("Cannot find metric config file " + yamlPath);
                 } catch (Exception e) {
@@ -273,11 +262,18 @@ public class Instance {
 
     @VisibleForTesting
     static void loadMetricConfigResources(
-            AppConfig config, LinkedList<Configuration> configurationList) {
+            AppConfig config, List<Configuration> configurationList) {
         List<String> resourceConfigList = config.getMetricConfigResources();
         if (resourceConfigList != null) {
             ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
             for (String resourceName : resourceConfigList) {
+                String key = "resource:" + resourceName;
+                List<Configuration> configurations = SHARED_CONFIGURATIONS.get(key);
+                if (configurations != null) {
+                    configurationList.addAll(configurations);
+                    continue;
+                }
+
                 log.info("Reading metric config resource " + resourceName);
                 InputStream inputStream = classLoader.getResourceAsStream(resourceName);
                 if (inputStream == null) {
@@ -290,9 +286,8 @@ public class Instance {
                         ArrayList<LinkedHashMap<String, Object>> jmxConf =
                                 topYaml.get("jmx_metrics");
                         if (jmxConf != null) {
-                            for (LinkedHashMap<String, Object> conf : jmxConf) {
-                                configurationList.add(new Configuration(conf));
-                            }
+                            configurationList.addAll(
+                                    cacheConfigurations(key, toConfigurationList(jmxConf)));
                         } else {
                             log.warn("jmx_metrics block not found in resource " + resourceName);
                         }
@@ -310,45 +305,9 @@ public class Instance {
         }
     }
 
-    /**
-     * Format the instance tags defined in the YAML configuration file to a `LinkedHashMap`.
-     * Supported inputs: `List`, `Map`.
-     */
-    private static LinkedHashMap<String, String> getTagsMap(Object tagsMap, AppConfig appConfig) {
-        LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
-        if (appConfig.getGlobalTags() != null) {
-            tags.putAll(appConfig.getGlobalTags());
-        }
-        if (tagsMap != null) {
-            try {
-                // Input has `Map` format
-                tags.putAll((Map<String, String>) tagsMap);
-            } catch (ClassCastException e) {
-                // Input has `List` format
-                for (String tag : (List<String>) tagsMap) {
-                    tags.put(tag, null);
-                }
-            }
-        }
-        return tags;
-    }
-
     /** Returns a boolean describing if the canonical rate config is enabled. */
     public boolean getCanonicalRateConfig() {
-        Object canonical = null;
-        if (this.initConfig != null) {
-            canonical = this.initConfig.get("canonical_rate");
-        }
-
-        if (canonical == null) {
-            return false;
-        }
-
-        if (canonical instanceof Boolean) {
-            return ((Boolean) canonical).booleanValue();
-        }
-
-        return false;
+        return config.isCanonicalRate();
     }
 
     /** Returns the instance connection, creates one if not already connected. */
@@ -372,7 +331,7 @@ public class Instance {
     public void init(boolean forceNewConnection)
             throws IOException, FailedLoginException, SecurityException {
         log.info("Trying to connect to JMX Server at " + this.toString());
-        connection = getConnection(instanceMap, forceNewConnection);
+        connection = getConnection(config.getConnectionParams(), forceNewConnection);
         log.info(
                 "Trying to collect bean list for the first time for JMX Server at "
                         + this.toString());
@@ -382,49 +341,48 @@ public class Instance {
         log.info("Done initializing JMX Server at " + this.toString());
     }
 
+    /** Returns the descriptors of the series collected by the instance. */
+    public MetricDescriptors getMetricDescriptors() {
+        return descriptors;
+    }
+
     /** Returns a string representation for the instance. */
     @Override
     public String toString() {
-        if (isDirectInstance(instanceMap)) {
-            return "jvm_direct";
-        } else if (this.instanceMap.get(PROCESS_NAME_REGEX) != null) {
-            return "process_regex: `" + this.instanceMap.get(PROCESS_NAME_REGEX) + "`";
-        } else if (this.instanceMap.get("name") != null) {
-            return (String) this.instanceMap.get("name");
-        } else if (this.instanceMap.get("jmx_url") != null) {
-            return (String) this.instanceMap.get("jmx_url");
-        } else {
-            return this.instanceMap.get("host") + ":" + this.instanceMap.get("port");
-        }
+        return config.toString();
     }
 
-    /** Returns a map of metrics collected. */
-    public LinkedList<HashMap<String, Object>> getMetrics() throws IOException {
-
-        // We can force to refresh the bean list every x seconds in case of ephemeral beans
-        // To enable this, a "refresh_beans" parameter must be specified in the yaml/json config
-        if (this.refreshBeansPeriod != null
-                && (System.currentTimeMillis() - this.lastRefreshTime) / 1000
-                        > this.refreshBeansPeriod) {
-            log.info("Refreshing bean list");
-            this.refreshBeansList();
-            this.getMatchingAttributes();
+    /**
+     * Collects the metrics of the instance. The returned batch is reused by the next collection
+     * once given back with {@link #recycle(MetricBatch)}.
+     */
+    public MetricBatch getMetrics() throws IOException {
+        // Read first: the attributes are at least as recent as the generation
+        final int generation = this.matchingGeneration;
+        LinkedList<JmxAttribute> attributes = this.matchingAttributes;
+        if (attributes != this.collectedAttributes) {
+            // The bean list was refreshed since the last collection
+            this.failingAttributes.clear();
+            this.collectedAttributes = attributes;
         }
 
-        LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
-        Iterator<JmxAttribute> it = matchingAttributes.iterator();
+        MetricBatch batch = spareBatch.getAndSet(null);
+        if (batch == null) {
+            // First collection, or the previous batch is still used
+            batch = new MetricBatch(descriptors, config.getCheckName());
+        }
+        Iterator<JmxAttribute> it = attributes.iterator();
 
         // increment the lastCollectionTime
         this.lastCollectionTime = System.currentTimeMillis();
+        batch.reset(this.lastCollectionTime);
 
         while (it.hasNext()) {
             JmxAttribute jmxAttr = it.next();
+            int collected = batch.size();
             try {
-                LinkedList<HashMap<String, Object>> jmxAttrMetrics = jmxAttr.getMetrics();
-                for (HashMap<String, Object> m : jmxAttrMetrics) {
-                    m.put("check_name", this.checkName);
-                    metrics.add(m);
-                }
+                jmxAttr.collectMetrics(batch);
+                batch.stamp(collected, jmxAttr.getReadTime());
 
                 if (this.failingAttributes.contains(jmxAttr)) {
                     this.failingAttributes.remove(jmxAttr);
@@ -432,6 +390,8 @@ public class Instance {
             } catch (IOException e) {
                 throw e;
             } catch (Exception e) {
+                // Drop the points of the attribute collected before the failure
+                batch.truncate(collected);
                 log.debug("Cannot get metrics for attribute: " + jmxAttr, e);
                 if (this.failingAttributes.contains(jmxAttr)) {
                     log.debug(
@@ -444,43 +404,94 @@ public class Instance {
                 }
             }
         }
-        return metrics;
+        if (generation != this.prunedGeneration) {
+            // The series no longer matched are dropped once the refreshed attributes registered
+            // theirs, those of the batch are kept
+            descriptors.prune(generation);
+            this.prunedGeneration = generation;
+        }
+        if (descriptors.hasAggregations()) {
+            batch.aggregate();
+        }
+        this.collectedBatch = batch;
+        return batch;
+    }
+
+    /** Returns an empty batch, for the runs skipped as it is not time to collect. */
+    public MetricBatch getEmptyMetrics() {
+        if (emptyBatch == null) {
+            emptyBatch = new MetricBatch(descriptors, config.getCheckName());
+        }
+        return emptyBatch;
+    }
+
+    /**
+     * Gives back a batch once reported, to be reused by the next collection. The batches not handed
+     * out by {@link #getMetrics()} are ignored.
+     */
+    public void recycle(MetricBatch batch) {
+        if (batch == collectedBatch) {
+            spareBatch.set(batch);
+        }
     }
 
     /** Returns whather or not its time to collect metrics for the instance. */
     public boolean timeToCollect() {
-        if (this.minCollectionPeriod == null) {
+        Integer minCollectionPeriod = config.getMinCollectionPeriod();
+        if (minCollectionPeriod == null) {
             return true;
         } else if ((System.currentTimeMillis() - this.lastCollectionTime) / 1000
-                < this.minCollectionPeriod) {
+                < minCollectionPeriod) {
             return false;
         } else {
             return true;
         }
     }
 
+    /** Returns whether or not its time to refresh the bean list of the instance. */
+    public boolean isBeansRefreshDue() {
+        // We can force to refresh the bean list every x seconds in case of ephemeral beans
+        // To enable this, a "refresh_beans" parameter must be specified in the yaml/json config
+        return (System.currentTimeMillis() - this.lastRefreshTime) / 1000
+                > config.getRefreshBeansPeriod();
+    }
+
+    /**
+     * Refreshes the bean list and the matching attributes. Metrics keep being collected from the
+     * previous attributes until the new ones are swapped in.
+     */
+    public void refreshBeans() throws IOException {
+        log.info("Refreshing bean list");
+        long start = System.nanoTime();
+        this.refreshBeansList();
+        this.getMatchingAttributes();
+        this.lastRefreshDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Refreshed bean list for " + this + " in " + this.lastRefreshDuration + " ms");
+    }
+
     private void getMatchingAttributes() throws IOException {
-        limitReached = false;
         Reporter reporter = appConfig.getReporter();
         String action = appConfig.getAction();
-        boolean metricReachedDisplayed = false;
-
-        this.matchingAttributes.clear();
-        this.failingAttributes.clear();
-        int metricsCount = 0;
+        final int generation = descriptors.beginRefresh();
 
         if (!action.equals(AppConfig.ACTION_COLLECT)) {
             reporter.displayInstanceName(this);
         }
 
-        for (ObjectName beanName : beans) {
-            if (limitReached) {
-                log.debug("Limit reached");
-                if (action.equals(AppConfig.ACTION_COLLECT)) {
-                    break;
-                }
-            }
+        // Beans and attributes are walked in a stable order so that the attributes kept when the
+        // metric limit is reached do not change from one refresh to the other
+        List<ObjectName> sortedBeans = new ArrayList<ObjectName>(beans);
+        Collections.sort(sortedBeans, BEAN_ORDER);
+        List<MatchingAttribute> candidates = new ArrayList<MatchingAttribute>();
+
+        for (ObjectName beanName : sortedBeans) {
             MBeanAttributeInfo[] attributeInfos;
+            BeanContext beanContext =
+                    new BeanContext(
+                            beanName,
+                            config.getName(),
+                            config.getTags(),
+                            config.isEmptyDefaultHostname());
 
             try {
                 // Get all the attributes for bean_name
@@ -497,21 +508,9 @@ public class Instance {
                 log.warn("Cannot get bean attributes " + e.getMessage());
                 continue;
             }
+            Arrays.sort(attributeInfos, ATTRIBUTE_ORDER);
 
             for (MBeanAttributeInfo attributeInfo : attributeInfos) {
-
-                if (metricsCount >= maxReturnedMetrics) {
-                    limitReached = true;
-                    if (action.equals(AppConfig.ACTION_COLLECT)) {
-                        log.warn("Maximum number of metrics reached.");
-                        break;
-                    } else if (!metricReachedDisplayed
-                            && !action.equals(AppConfig.ACTION_LIST_COLLECTED)
-                            && !action.equals(AppConfig.ACTION_LIST_NOT_MATCHING)) {
-                        reporter.displayMetricReached();
-                        metricReachedDisplayed = true;
-                    }
-                }
                 JmxAttribute jmxAttribute;
                 String attributeType = attributeInfo.getType();
                 if (SIMPLE_TYPES.contains(attributeType)) {
@@ -524,12 +523,9 @@ public class Instance {
                     jmxAttribute =
                             new JmxSimpleAttribute(
                                     attributeInfo,
-                                    beanName,
-                                    instanceName,
+                                    beanContext,
                                     connection,
-                                    tags,
-                                    cassandraAliasing,
-                                    emptyDefaultHostname);
+                                    config.isCassandraAliasing());
                 } else if (COMPOSED_TYPES.contains(attributeType)) {
                     log.debug(
                             ATTRIBUTE
@@ -538,13 +534,7 @@ public class Instance {
                                     + attributeInfo
                                     + " has attributeInfo composite type");
                     jmxAttribute =
-                            new JmxComplexAttribute(
-                                    attributeInfo,
-                                    beanName,
-                                    instanceName,
-                                    connection,
-                                    tags,
-                                    emptyDefaultHostname);
+                            new JmxComplexAttribute(attributeInfo, beanContext, connection);
                 } else if (MULTI_TYPES.contains(attributeType)) {
                     log.debug(
                             ATTRIBUTE
@@ -553,13 +543,7 @@ public class Instance {
                                     + attributeInfo
                                     + " has attributeInfo tabular type");
                     jmxAttribute =
-                            new JmxTabularAttribute(
-                                    attributeInfo,
-                                    beanName,
-                                    instanceName,
-                                    connection,
-                                    tags,
-                                    emptyDefaultHostname);
+                            new JmxTabularAttribute(attributeInfo, beanContext, connection);
                 } else {
                     try {
                         log.debug(
@@ -579,22 +563,12 @@ public class Instance {
                 // matches
                 // If so, we store the attribute so metrics will be collected from it. Otherwise we
                 // discard it.
-                for (Configuration conf : configurationList) {
+                for (int i = 0; i < configurationList.size(); i++) {
+                    Configuration conf = configurationList.get(i);
                     try {
                         if (jmxAttribute.match(conf)) {
-                            jmxAttribute.setMatchingConf(conf);
-                            metricsCount += jmxAttribute.getMetricsCount();
-                            this.matchingAttributes.add(jmxAttribute);
-
-                            if (action.equals(AppConfig.ACTION_LIST_EVERYTHING)
-                                    || action.equals(AppConfig.ACTION_LIST_MATCHING)
-                                    || action.equals(AppConfig.ACTION_LIST_COLLECTED)
-                                            && !limitReached
-                                    || action.equals(AppConfig.ACTION_LIST_LIMITED)
-                                            && limitReached) {
-                                reporter.displayMatchingAttributeName(
-                                        jmxAttribute, metricsCount, maxReturnedMetrics);
-                            }
+                            jmxAttribute.setMatchingConf(conf, descriptors);
+                            candidates.add(new MatchingAttribute(jmxAttribute, conf, i));
                             break;
                         }
                     } catch (Exception e) {
@@ -614,7 +588,84 @@ public class Instance {
                 }
             }
         }
+
+        // Rank the matching attributes, stable sort: ties keep the bean and attribute order
+        Collections.sort(candidates);
+
+        // Built aside so that the attributes being collected are never modified
+        LinkedList<JmxAttribute> matchingAttributes = new LinkedList<JmxAttribute>();
+        boolean limitReached = false;
+        boolean metricReachedDisplayed = false;
+        int maxReturnedMetrics = config.getMaxReturnedMetrics();
+        int metricsCount = 0;
+
+        for (MatchingAttribute candidate : candidates) {
+            JmxAttribute jmxAttribute = candidate.attribute;
+
+            if (metricsCount >= maxReturnedMetrics) {
+                limitReached = true;
+                if (action.equals(AppConfig.ACTION_COLLECT)) {
+                    log.warn("Maximum number of metrics reached.");
+                    break;
+                } else if (!metricReachedDisplayed
+                        && !action.equals(AppConfig.ACTION_LIST_COLLECTED)
+                        && !action.equals(AppConfig.ACTION_LIST_NOT_MATCHING)) {
+                    reporter.displayMetricReached();
+                    metricReachedDisplayed = true;
+                }
+            }
+
+            metricsCount += jmxAttribute.getMetricsCount();
+            if (!limitReached) {
+                try {
+                    jmxAttribute.resolveDescriptors();
+                } catch (Exception e) {
+                    // Resolved again when collected
+                    log.debug("Cannot resolve the series of attribute: " + jmxAttribute, e);
+                }
+                matchingAttributes.add(jmxAttribute);
+            }
+
+            if (action.equals(AppConfig.ACTION_LIST_EVERYTHING)
+                    || action.equals(AppConfig.ACTION_LIST_MATCHING)
+                    || action.equals(AppConfig.ACTION_LIST_COLLECTED) && !limitReached
+                    || action.equals(AppConfig.ACTION_LIST_LIMITED) && limitReached) {
+                reporter.displayMatchingAttributeName(
+                        jmxAttribute, metricsCount, maxReturnedMetrics);
+            }
+        }
+        if (metricsCount > maxReturnedMetrics) {
+            // The last attribute kept crossed the limit
+            limitReached = true;
+        }
         log.info("Found " + matchingAttributes.size() + " matching attributes");
+        this.limitReached = limitReached;
+        this.matchingAttributes = matchingAttributes;
+        this.matchingGeneration = generation;
+    }
+
+    /**
+     * An attribute matching a configuration, ranked by the priority of the configuration then by
+     * its position: instance configurations come before metric files and default ones.
+     */
+    private static class MatchingAttribute implements Comparable<MatchingAttribute> {
+        private final JmxAttribute attribute;
+        private final int priority;
+        private final int configurationIndex;
+
+        MatchingAttribute(JmxAttribute attribute, Configuration conf, int configurationIndex) {
+            this.attribute = attribute;
+            this.priority = conf.getPriority();
+            this.configurationIndex = configurationIndex;
+        }
+
+        @Override
+        public int compareTo(MatchingAttribute other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return configurationIndex - other.configurationIndex;
+        }
     }
 
     /** Returns a list of strings listing the bean scopes. */
@@ -656,48 +707,37 @@ public class Instance {
 
     /** Returns a string array listing the service check tags. */
     public String[] getServiceCheckTags() {
-        List<String> tags = new ArrayList<String>();
-        if (this.instanceMap.get("host") != null) {
-            tags.add("jmx_server:" + this.instanceMap.get("host"));
-        }
-        if (this.tags != null) {
-            for (Entry<String, String> e : this.tags.entrySet()) {
-                if (e.getValue() != null) {
-                    tags.add(e.getKey() + ":" + e.getValue());
-                } else {
-                    tags.add(e.getKey());
-                }
-            }
-        }
-        tags.add("instance:" + this.instanceName);
-
-        if (this.emptyDefaultHostname) {
-            tags.add("host:");
-        }
-        return tags.toArray(new String[tags.size()]);
+        return config.getServiceCheckTags();
     }
 
     /** Returns the instance name. */
     public String getName() {
-        return this.instanceName;
+        return config.getName();
     }
 
-    LinkedHashMap<String, Object> getInstanceMap() {
-        return this.instanceMap;
+    /** Returns the parsed instance configuration. */
+    public InstanceConfig getConfig() {
+        return config;
     }
 
-    LinkedHashMap<String, Object> getInitConfig() {
-        return this.initConfig;
+    @VisibleForTesting
+    List<Configuration> getConfigurationList() {
+        return this.configurationList;
     }
 
     /** Returns the check name. */
     public String getCheckName() {
-        return this.checkName;
+        return config.getCheckName();
     }
 
     /** Returns the maximum number of metrics an instance may collect. */
     public int getMaxNumberOfMetrics() {
-        return this.maxReturnedMetrics;
+        return config.getMaxReturnedMetrics();
+    }
+
+    /** Returns the duration of the last bean refresh in milliseconds, -1 if there was none. */
+    public long getLastRefreshDuration() {
+        return this.lastRefreshDuration;
     }
 
     /** Returns whether or not the instance has reached the maximum bean collection limit. */
@@ -0,0 +1,299 @@
+package org.datadog.jmxfetch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Typed and validated configuration of an instance, parsed once out of its `instances` and
+ * `init_config` YAML or JSON maps. Values derived from the configuration are computed upfront.
+ *
+ * <p>Instance configurations are immutable, the maps and arrays they return must not be mutated.
+ */
+@Slf4j
+public final class InstanceConfig {
+    private static final int MAX_RETURNED_METRICS = 350;
+    private static final int DEFAULT_REFRESH_BEANS_PERIOD = 600;
+    // The only instance parameters read when connecting to the JVM
+    private static final List<String> CONNECTION_PARAMETERS =
+            Arrays.asList(
+                    Instance.JVM_DIRECT,
+                    Instance.PROCESS_NAME_REGEX,
+                    "host",
+                    "port",
+                    "path",
+                    "jmx_url",
+                    "user",
+                    "password",
+                    "rmi_client_timeout",
+                    "rmi_registry_ssl",
+                    "trust_store_path",
+                    "trust_store_password",
+                    "key_store_path",
+                    "key_store_password");
+
+    private final String checkName;
+    private final String name;
+    private final String description;
+    private final LinkedHashMap<String, Object> connectionParams;
+    private final List<Configuration> configurations;
+    private final LinkedHashMap<String, String> tags;
+    private final String[] serviceCheckTags;
+    private final int refreshBeansPeriod;
+    private final Integer minCollectionPeriod;
+    private final int maxReturnedMetrics;
+    private final boolean cassandraAliasing;
+    private final boolean emptyDefaultHostname;
+    private final boolean canonicalRate;
+    private final boolean newGcMetrics;
+
+    /** Parses the configuration of an instance of the given check. */
+    @SuppressWarnings("unchecked")
+    public InstanceConfig(
+            Map<String, Object> instanceMap,
+            Map<String, Object> initConfig,
+            String checkName,
+            AppConfig appConfig) {
+        if (initConfig == null) {
+            initConfig = Collections.emptyMap();
+        }
+        this.checkName = checkName;
+
+        LinkedHashMap<String, Object> connectionParams = new LinkedHashMap<String, Object>();
+        for (String key : CONNECTION_PARAMETERS) {
+            if (instanceMap.containsKey(key)) {
+                connectionParams.put(key, instanceMap.get(key));
+            }
+        }
+        this.connectionParams = connectionParams;
+
+        // Generate an instance name that will be send as a tag with the metrics
+        String name = getString(instanceMap, "name");
+        if (name == null) {
+            if (instanceMap.get(Instance.PROCESS_NAME_REGEX) != null) {
+                name = checkName + "-" + instanceMap.get(Instance.PROCESS_NAME_REGEX);
+            } else if (instanceMap.get("host") != null) {
+                name = checkName + "-" + instanceMap.get("host") + "-" + instanceMap.get("port");
+            } else {
+                log.warn(
+                        "Cannot determine a unique instance name. "
+                                + "Please define a name in your instance configuration");
+                name = checkName;
+            }
+        }
+        this.name = name;
+        this.description = describe(instanceMap);
+
+        // In case the configuration to match beans is not specified in the "instance" parameter but
+        // in the initConfig one
+        Object conf = instanceMap.get("conf");
+        if (conf == null) {
+            conf = initConfig.get("conf");
+        }
+        List<Configuration> configurations = new ArrayList<Configuration>();
+        if (conf == null) {
+            log.warn("Cannot find a \"conf\" section in " + this.name);
+        } else if (conf instanceof List) {
+            for (Object rule : (List<Object>) conf) {
+                if (!(rule instanceof LinkedHashMap)) {
+                    throw invalid("conf", rule, "a list of rules");
+                }
+                configurations.add(new Configuration((LinkedHashMap<String, Object>) rule));
+            }
+        } else {
+            throw invalid("conf", conf, "a list of rules");
+        }
+        this.configurations = Collections.unmodifiableList(configurations);
+
+        if (appConfig.getRefreshBeansPeriod() != null) {
+            // Allow global overrides
+            this.refreshBeansPeriod = appConfig.getRefreshBeansPeriod();
+        } else {
+            // Make sure to refresh the beans list every 10 minutes by default
+            // Useful because sometimes if the application restarts, jmxfetch might read
+            // a jmxtree that is not completely initialized and would be missing some attributes
+            Integer refreshBeansPeriod = getInteger(instanceMap, "refresh_beans");
+            this.refreshBeansPeriod =
+                    refreshBeansPeriod != null ? refreshBeansPeriod : DEFAULT_REFRESH_BEANS_PERIOD;
+        }
+
+        Integer minCollectionPeriod = getInteger(instanceMap, "min_collection_interval");
+        if (minCollectionPeriod == null) {
+            minCollectionPeriod = getInteger(initConfig, "min_collection_interval");
+        }
+        this.minCollectionPeriod = minCollectionPeriod;
+
+        Integer maxReturnedMetrics = getInteger(instanceMap, "max_returned_metrics");
+        this.maxReturnedMetrics =
+                maxReturnedMetrics != null ? maxReturnedMetrics : MAX_RETURNED_METRICS;
+
+        // Alternative aliasing for CASSANDRA-4009 metrics
+        // More information: https://issues.apache.org/jira/browse/CASSANDRA-4009
+        this.cassandraAliasing = getBoolean(instanceMap, "cassandra_aliasing");
+        this.emptyDefaultHostname = getBoolean(instanceMap, "empty_default_hostname");
+        this.newGcMetrics = getBoolean(initConfig, "new_gc_metrics");
+        // Historically lenient: anything but a boolean disables canonical rates
+        this.canonicalRate = Boolean.TRUE.equals(initConfig.get("canonical_rate"));
+
+        this.tags = getTagsMap(instanceMap.get("tags"), appConfig);
+        this.serviceCheckTags = buildServiceCheckTags(instanceMap.get("host"));
+    }
+
+    /** Returns a human readable identifier of the JVM the instance connects to. */
+    private static String describe(Map<String, Object> instanceMap) {
+        Object directInstance = instanceMap.get(Instance.JVM_DIRECT);
+        if (directInstance instanceof Boolean && (Boolean) directInstance) {
+            return Instance.JVM_DIRECT;
+        } else if (instanceMap.get(Instance.PROCESS_NAME_REGEX) != null) {
+            return "process_regex: `" + instanceMap.get(Instance.PROCESS_NAME_REGEX) + "`";
+        } else if (instanceMap.get("name") != null) {
+            return (String) instanceMap.get("name");
+        } else if (instanceMap.get("jmx_url") != null) {
+            return (String) instanceMap.get("jmx_url");
+        } else {
+            return instanceMap.get("host") + ":" + instanceMap.get("port");
+        }
+    }
+
+    /**
+     * Format the instance tags defined in the YAML configuration file to a `LinkedHashMap`.
+     * Supported inputs: `List`, `Map`.
+     */
+    @SuppressWarnings("unchecked")
+    private static LinkedHashMap<String, String> getTagsMap(Object tagsMap, AppConfig appConfig) {
+        LinkedHashMap<String, String> tags = new LinkedHashMap<String, String>();
+        if (appConfig.getGlobalTags() != null) {
+            tags.putAll(appConfig.getGlobalTags());
+        }
+        if (tagsMap instanceof Map) {
+            tags.putAll((Map<String, String>) tagsMap);
+        } else if (tagsMap instanceof List) {
+            for (String tag : (List<String>) tagsMap) {
+                tags.put(tag, null);
+            }
+        } else if (tagsMap != null) {
+            throw invalid("tags", tagsMap, "a list or a map");
+        }
+        return tags;
+    }
+
+    private String[] buildServiceCheckTags(Object host) {
+        List<String> tags = new ArrayList<String>();
+        if (host != null) {
+            tags.add("jmx_server:" + host);
+        }
+        for (Entry<String, String> e : this.tags.entrySet()) {
+            if (e.getValue() != null) {
+                tags.add(e.getKey() + ":" + e.getValue());
+            } else {
+                tags.add(e.getKey());
+            }
+        }
+        tags.add("instance:" + this.name);
+
+        if (this.emptyDefaultHostname) {
+            tags.add("host:");
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    private static String getString(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value != null && !(value instanceof String)) {
+            throw invalid(key, value, "a string");
+        }
+        return (String) value;
+    }
+
+    private static Integer getInteger(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value != null && !(value instanceof Integer)) {
+            throw invalid(key, value, "an integer");
+        }
+        return (Integer) value;
+    }
+
+    private static boolean getBoolean(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value != null && !(value instanceof Boolean)) {
+            throw invalid(key, value, "a boolean");
+        }
+        return value != null && (Boolean) value;
+    }
+
+    private static IllegalArgumentException invalid(String key, Object value, String expected) {
+        return new IllegalArgumentException(
+                "Invalid `" + key + "` value: `" + value + "`, expected " + expected);
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    /** Returns the instance name, sent as the `instance` tag. */
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the parameters used to connect to the JVM. */
+    public LinkedHashMap<String, Object> getConnectionParams() {
+        return connectionParams;
+    }
+
+    public boolean isDirectInstance() {
+        return Instance.isDirectInstance(connectionParams);
+    }
+
+    /** Returns the metric configurations defined by the instance or its `init_config`. */
+    public List<Configuration> getConfigurations() {
+        return configurations;
+    }
+
+    public LinkedHashMap<String, String> getTags() {
+        return tags;
+    }
+
+    public String[] getServiceCheckTags() {
+        return serviceCheckTags;
+    }
+
+    public int getRefreshBeansPeriod() {
+        return refreshBeansPeriod;
+    }
+
+    /** Returns the minimum collection period in seconds, null if there is none. */
+    public Integer getMinCollectionPeriod() {
+        return minCollectionPeriod;
+    }
+
+    public int getMaxReturnedMetrics() {
+        return maxReturnedMetrics;
+    }
+
+    public boolean isCassandraAliasing() {
+        return cassandraAliasing;
+    }
+
+    public boolean isEmptyDefaultHostname() {
+        return emptyDefaultHostname;
+    }
+
+    public boolean isCanonicalRate() {
+        return canonicalRate;
+    }
+
+    public boolean isNewGcMetrics() {
+        return newGcMetrics;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -5,20 +5,15 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
-import javax.management.JMException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
 import javax.management.ObjectName;
@@ -29,6 +24,9 @@ public abstract class JmxAttribute {
 
     protected static final String ALIAS = "alias";
     protected static final String METRIC_TYPE = "metric_type";
+    protected static final String VALUE = "value";
+    protected static final String TAGS = "tags";
+    protected static final String DESCRIPTOR = "descriptor";
     private static final List<String> EXCLUDED_BEAN_PARAMS =
             Arrays.asList(
                     "domain",
@@ -39,61 +37,43 @@ public abstract class JmxAttribute {
                     "attribute",
                     "exclude_tags",
                     "tags");
-    private static final String FIRST_CAP_PATTERN = "(.)([A-Z][a-z]+)";
-    private static final String ALL_CAP_PATTERN = "([a-z0-9])([A-Z])";
-    private static final String METRIC_REPLACEMENT = "([^a-zA-Z0-9_.]+)|(^[^a-zA-Z]+)";
-    private static final String DOT_UNDERSCORE = "_*\\._*";
     protected static final String CASSANDRA_DOMAIN = "org.apache.cassandra.metrics";
 
     private MBeanAttributeInfo attribute;
     private Connection connection;
+    private BeanContext beanContext;
     private ObjectName beanName;
     private String domain;
     private String beanStringName;
-    private HashMap<String, String> beanParameters;
+    private Map<String, String> beanParameters;
+    private String[] beanRegexGroups;
     private String attributeName;
     private LinkedHashMap<String, LinkedHashMap<Object, Object>> valueConversions =
             new LinkedHashMap<String, LinkedHashMap<Object, Object>>();
     protected String[] tags;
     private Configuration matchingConf;
+    private boolean valueAliases;
+    private String aliasedValue;
+    private long readTime;
+    private MetricDescriptors descriptors;
     private LinkedList<String> defaultTagsList;
-    private Boolean cassandraAliasing;
+    private boolean cassandraAliasing;
 
     JmxAttribute(
             MBeanAttributeInfo attribute,
-            ObjectName beanName,
-            String instanceName,
+            BeanContext beanContext,
             Connection connection,
-            HashMap<String, String> instanceTags,
-            Boolean cassandraAliasing,
-            boolean emptyDefaultHostname) {
+            boolean cassandraAliasing) {
         this.attribute = attribute;
-        this.beanName = beanName;
+        this.beanContext = beanContext;
+        this.beanName = beanContext.getBeanName();
         this.matchingConf = null;
         this.connection = connection;
         this.attributeName = attribute.getName();
-        this.beanStringName = beanName.toString();
+        this.beanStringName = beanContext.getBeanStringName();
+        this.domain = beanContext.getDomain();
+        this.beanParameters = beanContext.getBeanParameters();
         this.cassandraAliasing = cassandraAliasing;
-
-        // A bean name is formatted like that:
-        // org.apache.cassandra.db:type=Caches,keyspace=system,cache=HintsColumnFamilyKeyCache
-        // i.e. : domain:bean_parameter1,bean_parameter2
-        // Note: some beans have a ':' in the name. Example:
-        // some.domain:name="some.bean.0.0.0.0:80.some-metric"
-        int splitPosition = beanStringName.indexOf(':');
-        String domain = beanStringName.substring(0, splitPosition);
-        String beanParameters = beanStringName.substring(splitPosition + 1);
-        this.domain = domain;
-
-        HashMap<String, String> beanParametersHash = getBeanParametersHash(beanParameters);
-        LinkedList<String> beanParametersList =
-                getBeanParametersList(instanceName, beanParametersHash, instanceTags);
-
-        this.beanParameters = beanParametersHash;
-        this.defaultTagsList = sanitizeParameters(beanParametersList);
-        if (emptyDefaultHostname) {
-            this.defaultTagsList.add("host:");
-        }
     }
 
     /** Remove tags listed in the 'exclude_tags' list from configuration. */
@@ -142,85 +122,12 @@ public abstract class JmxAttribute {
         return beanParamsMap;
     }
 
-    private LinkedList<String> getBeanParametersList(
-            String instanceName,
-            Map<String, String> beanParameters,
-            HashMap<String, String> instanceTags) {
-        LinkedList<String> beanTags = new LinkedList<String>();
-        beanTags.add("instance:" + instanceName);
-        beanTags.add("jmx_domain:" + domain);
-
-        if (renameCassandraMetrics()) {
-            beanTags.addAll(getCassandraBeanTags(beanParameters));
-        } else {
-            for (Map.Entry<String, String> param : beanParameters.entrySet()) {
-                beanTags.add(param.getKey() + ":" + param.getValue());
-            }
-        }
-
-        if (instanceTags != null) {
-            for (Map.Entry<String, String> tag : instanceTags.entrySet()) {
-                if (tag.getValue() != null) {
-                    beanTags.add(tag.getKey() + ":" + tag.getValue());
-                } else {
-                    beanTags.add(tag.getKey());
-                }
-            }
-        }
-
-        return beanTags;
-    }
-
-    /**
-     * Sanitize MBean parameter names and values, i.e. - Rename parameter names conflicting with
-     * existing tags - Remove illegal characters
-     */
-    private static LinkedList<String> sanitizeParameters(LinkedList<String> beanParametersList) {
-        LinkedList<String> defaultTagsList = new LinkedList<String>();
-        for (String rawBeanParameter : beanParametersList) {
-            // Remove `|` characters
-            String beanParameter = rawBeanParameter.replace("|", "");
-
-            // 'host' parameter is renamed to 'bean_host'
-            if (beanParameter.startsWith("host:")) {
-                defaultTagsList.add("bean_host:" + beanParameter.substring("host:".length()));
-            } else if (beanParameter.endsWith(":")) {
-                // If the parameter's value is empty, remove the colon in the tag
-                defaultTagsList.add(beanParameter.substring(0, beanParameter.length() - 1));
-            } else {
-                defaultTagsList.add(beanParameter);
-            }
-        }
-
-        return defaultTagsList;
-    }
-
-    protected Boolean renameCassandraMetrics() {
-        return cassandraAliasing && domain.equals(CASSANDRA_DOMAIN);
-    }
-
-    private static Collection<String> getCassandraBeanTags(Map<String, String> beanParameters) {
-        Collection<String> tags = new LinkedList<String>();
-        for (Map.Entry<String, String> param : beanParameters.entrySet()) {
-            if (param.getKey().equals("name")) {
-                // This is already in the alias
-                continue;
-            } else if (param.getKey().equals("scope")) {
-                String type = beanParameters.get("type");
-                tags.add(type + ":" + param.getValue());
-            } else {
-                tags.add(param.getKey() + ":" + param.getValue());
-            }
-        }
-        return tags;
+    protected boolean renameCassandraMetrics() {
+        return cassandraAliasing && beanContext.isCassandraMetricsBean();
     }
 
     static String convertMetricName(String metricName) {
-        metricName = metricName.replaceAll(FIRST_CAP_PATTERN, "$1_$2");
-        metricName = metricName.replaceAll(ALL_CAP_PATTERN, "$1_$2").toLowerCase();
-        metricName = metricName.replaceAll(METRIC_REPLACEMENT, "_");
-        metricName = metricName.replaceAll(DOT_UNDERSCORE, ".").trim();
-        return metricName;
+        return MetricNameConverter.convert(metricName);
     }
 
     /** Returns string representation of JMX Attribute. */
@@ -234,7 +141,8 @@ public abstract class JmxAttribute {
                 + attribute.getType();
     }
 
-    public abstract LinkedList<HashMap<String, Object>> getMetrics()
+    /** Reads the attribute and appends a point per series to the batch. */
+    public abstract void collectMetrics(MetricBatch batch)
             throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
                     ReflectionException, IOException;
 
@@ -248,22 +156,34 @@ public abstract class JmxAttribute {
      */
     public abstract boolean match(Configuration conf);
 
-    /** Gets the metric count for the attribute. */
-    public int getMetricsCount() {
-        try {
-            return this.getMetrics().size();
-        } catch (Exception e) {
-            log.warn("Unable to get metrics from " + beanStringName + " - "
-                                                + attributeName + ": " + e.toString());
-            return 0;
-        }
-    }
+    /**
+     * Resolves the descriptors of the series of the attribute once matched. The series whose name
+     * depends on the value are resolved when collected.
+     */
+    public abstract void resolveDescriptors()
+            throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
+                    ReflectionException, IOException;
+
+    /**
+     * Gets the metric count for the attribute once matched. The count is computed from what was
+     * learnt while matching, no value is read.
+     */
+    public abstract int getMetricsCount();
 
     /** Gets the JMX Attribute info value. Makes a call through the connection */
     Object getJmxValue()
             throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
                     ReflectionException, IOException {
-        return this.connection.getAttribute(this.beanName, this.attribute.getName());
+        long start = System.nanoTime();
+        Object value = this.connection.getAttribute(this.beanName, this.attribute.getName());
+        // The value was read on the target somewhere during the call
+        this.readTime = start + (System.nanoTime() - start) / 2;
+        return value;
+    }
+
+    /** Returns the `System.nanoTime()` at which the value was last read. */
+    long getReadTime() {
+        return readTime;
     }
 
     boolean matchDomain(Configuration conf) {
@@ -282,66 +202,27 @@ public abstract class JmxAttribute {
                 || excludeDomainRegex != null && excludeDomainRegex.matcher(domain).matches();
     }
 
-    Object convertMetricValue(Object metricValue, String field) {
-        Object converted = metricValue;
-
-        if (!getValueConversions(field).isEmpty()) {
-            converted = getValueConversions(field).get(metricValue);
-            if (converted == null && getValueConversions(field).get("default") != null) {
-                converted = getValueConversions(field).get("default");
-            }
-        }
-
-        return converted;
-    }
-
-    double castToDouble(Object metricValue, String field) {
-        Object value = convertMetricValue(metricValue, field);
-
-        if (value instanceof String) {
-            return Double.parseDouble((String) value);
-        } else if (value instanceof Integer) {
-            return new Double((Integer) (value));
-        } else if (value instanceof AtomicInteger) {
-            return new Double(((AtomicInteger) (value)).get());
-        } else if (value instanceof AtomicLong) {
-            Long longValue = ((AtomicLong) (value)).get();
-            return longValue.doubleValue();
-        } else if (value instanceof Double) {
-            return (Double) value;
-        } else if (value instanceof Boolean) {
-            return ((Boolean) value ? 1.0 : 0.0);
-        } else if (value instanceof Long) {
-            Long longValue = new Long((Long) value);
-            return longValue.doubleValue();
-        } else if (value instanceof Number) {
-            return ((Number) value).doubleValue();
-        } else {
-            try {
-                return new Double((Double) value);
-            } catch (Exception e) {
-                throw new NumberFormatException();
-            }
-        }
+    /**
+     * Returns the converter of the values of the attribute, or of its `field`, to be called once
+     * matched.
+     */
+    ValueConverter getValueConverter(String field) {
+        String type = (field == null) ? getAttribute().getType() : null;
+        return ValueConverter.forType(type, getValueConversions(field));
     }
 
     private boolean matchBeanRegex(Filter filter, boolean matchIfNoRegex) {
-        ArrayList<Pattern> beanRegexes = filter.getBeanRegexes();
-        if (beanRegexes.isEmpty()) {
+        if (filter.getBeanRegexes().isEmpty()) {
             return matchIfNoRegex;
         }
 
-        for (Pattern beanRegex : beanRegexes) {
-            Matcher matcher = beanRegex.matcher(beanStringName);
-
-            if (matcher.matches()) {
-                for (int i = 0; i <= matcher.groupCount(); i++) {
-                    this.beanParameters.put(Integer.toString(i), matcher.group(i));
-                }
-                return true;
-            }
+        // Evaluated once per bean and filter, the result is shared by all the bean attributes
+        String[] groups = beanContext.matchBeanRegexes(filter);
+        if (groups == null) {
+            return false;
         }
-        return false;
+        this.beanRegexGroups = groups;
+        return true;
     }
 
     private boolean matchBeanName(Configuration configuration) {
@@ -436,15 +317,24 @@ public abstract class JmxAttribute {
         return matchingConf;
     }
 
-    /** Sets a matching configuration for the attribute. */
-    public void setMatchingConf(Configuration matchingConf) {
+    /**
+     * Sets a matching configuration for the attribute, and the registry where the descriptors of
+     * its series are resolved.
+     */
+    public void setMatchingConf(Configuration matchingConf, MetricDescriptors descriptors) {
         this.matchingConf = matchingConf;
+        this.descriptors = descriptors;
+        this.defaultTagsList =
+                new LinkedList<String>(beanContext.getDefaultTags(renameCassandraMetrics()));
 
         // Now that we have the matchingConf we can:
         // - add additional tags
         this.addAdditionalTags();
         // - filter out excluded tags
         this.applyTagsBlackList();
+
+        this.valueAliases = hasValueAliases();
+        this.aliasedValue = null;
     }
 
     MBeanAttributeInfo getAttribute() {
@@ -462,9 +352,10 @@ public abstract class JmxAttribute {
      * Use `alias` directly * Create an generic alias prefixed with user's `metric_prefix`
      * preference or default to `jmx`
      *
-     * <p>Argument(s): * (Optional) `field` `Null` for `JmxSimpleAttribute`.
+     * <p>Argument(s): * (Optional) `field` `Null` for `JmxSimpleAttribute`. * `value` The value
+     * of the attribute read for the collection, only used when the alias depends on it.
      */
-    protected String getAlias(String field) {
+    protected String getAlias(String field, Object value) {
         String alias = null;
 
         Filter include = getMatchingConf().getInclude();
@@ -478,7 +369,7 @@ public abstract class JmxAttribute {
         if (include.getAttribute() instanceof LinkedHashMap<?, ?>) {
             LinkedHashMap<String, LinkedHashMap<String, String>> attribute =
                     (LinkedHashMap<String, LinkedHashMap<String, String>>) (include.getAttribute());
-            alias = getUserAlias(attribute, fullAttributeName);
+            alias = getUserAlias(attribute, fullAttributeName, value);
         }
 
         if (alias == null) {
@@ -497,13 +388,74 @@ public abstract class JmxAttribute {
         return alias;
     }
 
+    /** Returns the descriptor of a series of the attribute. */
+    protected MetricDescriptor getDescriptor(String alias, String metricType, String[] tags) {
+        Aggregation aggregation = matchingConf.getAggregation();
+        if (aggregation != null) {
+            // The series is rolled up with the ones of the other beans sharing the `by` tags
+            return descriptors.register(
+                    alias,
+                    metricType,
+                    aggregation.groupTags(tags, beanContext.getInstanceTagNames()),
+                    aggregation);
+        }
+        return descriptors.register(alias, metricType, tags);
+    }
+
+    /** Returns whether the user alias of the attribute or `field` depends on the value. */
+    @SuppressWarnings("unchecked")
+    protected boolean isValueAlias(String field) {
+        Object includedAttribute = getMatchingConf().getInclude().getAttribute();
+        if (!(includedAttribute instanceof LinkedHashMap<?, ?>)) {
+            return false;
+        }
+        String fullAttributeName =
+                (field != null)
+                        ? (getAttribute().getName() + "." + field)
+                        : (getAttribute().getName());
+        LinkedHashMap<String, String> attribute =
+                ((LinkedHashMap<String, LinkedHashMap<String, String>>) includedAttribute)
+                        .get(fullAttributeName);
+        String alias = attribute != null ? attribute.get(ALIAS) : null;
+        return alias != null && alias.contains("$value");
+    }
+
+    /** Returns whether the user alias of the attribute or of one of its fields uses `$value`. */
+    @SuppressWarnings("unchecked")
+    private boolean hasValueAliases() {
+        Object includedAttribute = getMatchingConf().getInclude().getAttribute();
+        if (!(includedAttribute instanceof LinkedHashMap<?, ?>)) {
+            return false;
+        }
+        for (Map.Entry<String, LinkedHashMap<String, String>> attribute :
+                ((LinkedHashMap<String, LinkedHashMap<String, String>>) includedAttribute)
+                        .entrySet()) {
+            String name = attribute.getKey();
+            if ((name.equals(attributeName) || name.startsWith(attributeName + "."))
+                    && attribute.getValue() != null) {
+                String alias = attribute.getValue().get(ALIAS);
+                if (alias != null && alias.contains("$value")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
-     * Overload `getAlias` method.
-     *
-     * <p>Note: used for `JmxSimpleAttribute` only, as `field` is null.
+     * Returns whether the `$value` aliases of the attribute must be resolved again for the value
+     * read: they are only resolved again when the text of the value changes.
      */
-    protected String getAlias() {
-        return getAlias(null);
+    protected boolean valueAliasesChanged(Object value) {
+        if (!valueAliases) {
+            return false;
+        }
+        String text = String.valueOf(value);
+        if (text.equals(aliasedValue)) {
+            return false;
+        }
+        aliasedValue = text;
+        return true;
     }
 
     /**
@@ -536,7 +488,8 @@ public abstract class JmxAttribute {
      */
     private String getUserAlias(
             LinkedHashMap<String, LinkedHashMap<String, String>> attribute,
-            String fullAttributeName) {
+            String fullAttributeName,
+            Object value) {
         String alias = attribute.get(fullAttributeName).get(ALIAS);
         if (alias == null) {
             return null;
@@ -548,17 +501,8 @@ public abstract class JmxAttribute {
         alias = alias.replace("$attribute", fullAttributeName);
         alias = alias.replace("$domain", domain);
         if (alias.contains("$value")) {
-            // getJmxValue() hits the JMX target (potentially through remote network connection),
-            // so only call it if needed.
-            try {
-                alias = alias.replace("$value", getJmxValue().toString());
-            } catch (JMException e) {
-                // If we haven't been able to get the value, it wasn't replaced.
-                log.warn("Unable to replace $value for attribute " + fullAttributeName, e);
-            } catch (IOException e) {
-                // Same as above
-                log.warn("Unable to replace $value for attribute " + fullAttributeName, e);
-            }
+            // The value read for the collection, the attribute is not read again
+            alias = alias.replace("$value", String.valueOf(value));
         }
 
         return alias;
@@ -569,6 +513,12 @@ public abstract class JmxAttribute {
         for (Map.Entry<String, String> param : beanParameters.entrySet()) {
             alias = alias.replace("$" + param.getKey(), param.getValue());
         }
+        // Groups captured by `bean_regex`, `$10` before `$1`
+        if (beanRegexGroups != null) {
+            for (int i = beanRegexGroups.length - 1; i >= 0; i--) {
+                alias = alias.replace("$" + i, beanRegexGroups[i]);
+            }
+        }
         return alias;
     }
 
@@ -594,8 +544,7 @@ public abstract class JmxAttribute {
                 }
             }
         }
-        tags = new String[defaultTagsList.size()];
-        tags = defaultTagsList.toArray(tags);
+        tags = TagPool.internTags(defaultTagsList);
         return tags;
     }
 
@@ -615,7 +564,7 @@ public abstract class JmxAttribute {
         return domain;
     }
 
-    protected HashMap<String, String> getBeanParameters() {
+    protected Map<String, String> getBeanParameters() {
         return beanParameters;
     }
 }
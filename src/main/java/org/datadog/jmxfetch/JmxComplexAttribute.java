@@ -5,38 +5,25 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.Map;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
-import javax.management.ObjectName;
 import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 
 @SuppressWarnings("unchecked")
 public class JmxComplexAttribute extends JmxAttribute {
 
-    private HashMap<String, HashMap<String, Object>> subAttributeList;
+    private HashMap<String, MetricDescriptor> subAttributeList;
+    private HashMap<String, ValueConverter> converters = new HashMap<String, ValueConverter>();
 
     /** JmxComplexAttribute constructor. */
     public JmxComplexAttribute(
-            MBeanAttributeInfo attribute,
-            ObjectName beanName,
-            String instanceName,
-            Connection connection,
-            HashMap<String, String> instanceTags,
-            boolean emptyDefaultHostname) {
-        super(
-                attribute,
-                beanName,
-                instanceName,
-                connection,
-                instanceTags,
-                false,
-                emptyDefaultHostname);
-        this.subAttributeList = new HashMap<String, HashMap<String, Object>>();
+            MBeanAttributeInfo attribute, BeanContext beanContext, Connection connection) {
+        super(attribute, beanContext, connection, false);
+        this.subAttributeList = new HashMap<String, MetricDescriptor>();
     }
 
     private void populateSubAttributeList(Object attributeValue) {
@@ -44,51 +31,62 @@ public class JmxComplexAttribute extends JmxAttribute {
         if ("javax.management.openmbean.CompositeData".equals(attributeType)) {
             CompositeData data = (CompositeData) attributeValue;
             for (String key : data.getCompositeType().keySet()) {
-                this.subAttributeList.put(key, new HashMap<String, Object>());
+                this.subAttributeList.put(key, null);
             }
         } else if (("java.util.HashMap".equals(attributeType))
                 || ("java.util.Map".equals(attributeType))) {
             Map<String, Double> data = (Map<String, Double>) attributeValue;
             for (String key : data.keySet()) {
-                this.subAttributeList.put(key, new HashMap<String, Object>());
+                this.subAttributeList.put(key, null);
             }
         }
     }
 
     @Override
-    public LinkedList<HashMap<String, Object>> getMetrics()
+    public void collectMetrics(MetricBatch batch)
             throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
                     ReflectionException, IOException {
-
-        LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
-
-        for (Map.Entry<String, HashMap<String, Object>> pair : subAttributeList.entrySet()) {
+        // A single read of the attribute per collection
+        Object value = getJmxValue();
+        boolean valueChanged = valueAliasesChanged(value);
+        for (Map.Entry<String, MetricDescriptor> pair : subAttributeList.entrySet()) {
             String subAttribute = pair.getKey();
-            HashMap<String, Object> metric = pair.getValue();
-
-            if (metric.get(ALIAS) == null) {
-                metric.put(ALIAS, convertMetricName(getAlias(subAttribute)));
+            MetricDescriptor descriptor = pair.getValue();
+            if (descriptor == null || (valueChanged && isValueAlias(subAttribute))) {
+                // The alias depends on the value
+                descriptor = resolveDescriptor(subAttribute, value);
+                pair.setValue(descriptor);
             }
-
-            if (metric.get(METRIC_TYPE) == null) {
-                metric.put(METRIC_TYPE, getMetricType(subAttribute));
+            ValueConverter converter = converters.get(subAttribute);
+            if (converter == null) {
+                converter = getValueConverter(subAttribute);
+                converters.put(subAttribute, converter);
             }
+            batch.add(descriptor, converter.toDouble(getValue(value, subAttribute)));
+        }
+    }
 
-            if (metric.get("tags") == null) {
-                metric.put("tags", getTags());
+    @Override
+    public void resolveDescriptors() {
+        for (Map.Entry<String, MetricDescriptor> pair : subAttributeList.entrySet()) {
+            converters.put(pair.getKey(), getValueConverter(pair.getKey()));
+            if (pair.getValue() == null && !isValueAlias(pair.getKey())) {
+                pair.setValue(resolveDescriptor(pair.getKey(), null));
             }
-
-            metric.put("value", castToDouble(getValue(subAttribute), subAttribute));
-            metrics.add(metric);
         }
-        return metrics;
     }
 
-    private Object getValue(String subAttribute)
-            throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
-                    ReflectionException, IOException {
+    private MetricDescriptor resolveDescriptor(String subAttribute, Object value) {
+        return getDescriptor(
+                getAlias(subAttribute, value), getMetricType(subAttribute), getTags());
+    }
+
+    @Override
+    public int getMetricsCount() {
+        return subAttributeList.size();
+    }
 
-        Object value = this.getJmxValue();
+    private Object getValue(Object value, String subAttribute) {
         String attributeType = getAttribute().getType();
 
         if ("javax.management.openmbean.CompositeData".equals(attributeType)) {
@@ -102,7 +100,7 @@ public class JmxComplexAttribute extends JmxAttribute {
         throw new NumberFormatException();
     }
 
-    private Object getMetricType(String subAttribute) {
+    private String getMetricType(String subAttribute) {
         String subAttributeName = getAttribute().getName() + "." + subAttribute;
         String metricType = null;
 
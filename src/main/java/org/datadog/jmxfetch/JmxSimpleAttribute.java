@@ -2,52 +2,58 @@ package org.datadog.jmxfetch;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
-import javax.management.ObjectName;
 import javax.management.ReflectionException;
 
 @SuppressWarnings("unchecked")
 public class JmxSimpleAttribute extends JmxAttribute {
     private String metricType;
+    private MetricDescriptor descriptor;
+    private ValueConverter converter;
 
     /** JmxSimpleAttribute constructor. */
     public JmxSimpleAttribute(
             MBeanAttributeInfo attribute,
-            ObjectName beanName,
-            String instanceName,
+            BeanContext beanContext,
             Connection connection,
-            HashMap<String, String> instanceTags,
-            boolean cassandraAliasing,
-            Boolean emptyDefaultHostname) {
-        super(
-                attribute,
-                beanName,
-                instanceName,
-                connection,
-                instanceTags,
-                cassandraAliasing,
-                emptyDefaultHostname);
+            boolean cassandraAliasing) {
+        super(attribute, beanContext, connection, cassandraAliasing);
     }
 
     @Override
-    public LinkedList<HashMap<String, Object>> getMetrics()
+    public void collectMetrics(MetricBatch batch)
             throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
                     ReflectionException, IOException {
-        HashMap<String, Object> metric = new HashMap<String, Object>();
-
-        metric.put("alias", getAlias());
-        metric.put("value", castToDouble(getValue(), null));
-        metric.put("tags", getTags());
-        metric.put("metric_type", getMetricType());
-        LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
-        metrics.add(metric);
-        return metrics;
+        Object value = getValue();
+        MetricDescriptor descriptor = this.descriptor;
+        if (valueAliasesChanged(value) || descriptor == null) {
+            // The alias depends on the value
+            descriptor = getDescriptor(getAlias(null, value), getMetricType(), getTags());
+            this.descriptor = descriptor;
+        }
+        if (converter == null) {
+            converter = getValueConverter(null);
+        }
+        batch.add(descriptor, converter.toDouble(value));
+    }
+
+    @Override
+    public void resolveDescriptors() {
+        if (converter == null) {
+            converter = getValueConverter(null);
+        }
+        if (descriptor == null && !isValueAlias(null)) {
+            descriptor = getDescriptor(getAlias(null, null), getMetricType(), getTags());
+        }
+    }
+
+    @Override
+    public int getMetricsCount() {
+        return 1;
     }
 
     /** Returns whether an attribute matches in a configuration spec. */
@@ -6,19 +6,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanException;
-import javax.management.ObjectName;
 import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.InvalidKeyException;
@@ -26,26 +22,14 @@ import javax.management.openmbean.TabularData;
 
 @Slf4j
 public class JmxTabularAttribute extends JmxAttribute {
-    private String instanceName;
-    private HashMap<String, HashMap<String, HashMap<String, Object>>> subAttributeList;
+    private HashMap<String, HashMap<String, MetricDescriptor>> subAttributeList;
+    private ValueConverter converter;
 
     /** Default constructor. */
     public JmxTabularAttribute(
-            MBeanAttributeInfo attribute,
-            ObjectName beanName,
-            String instanceName,
-            Connection connection,
-            HashMap<String, String> instanceTags,
-            boolean emptyDefaultHostname) {
-        super(
-                attribute,
-                beanName,
-                instanceName,
-                connection,
-                instanceTags,
-                false,
-                emptyDefaultHostname);
-        subAttributeList = new HashMap<String, HashMap<String, HashMap<String, Object>>>();
+            MBeanAttributeInfo attribute, BeanContext beanContext, Connection connection) {
+        super(attribute, beanContext, connection, false);
+        subAttributeList = new HashMap<String, HashMap<String, MetricDescriptor>>();
     }
 
     private String getMultiKey(Collection keys) {
@@ -68,25 +52,33 @@ public class JmxTabularAttribute extends JmxAttribute {
             Collection keys = (Collection) rowKey;
             CompositeData compositeData = data.get(keys.toArray());
             String pathKey = getMultiKey(keys);
-            HashMap<String, HashMap<String, Object>> subAttributes =
-                    new HashMap<String, HashMap<String, Object>>();
+            HashMap<String, MetricDescriptor> subAttributes =
+                    new HashMap<String, MetricDescriptor>();
             for (String key : compositeData.getCompositeType().keySet()) {
                 if (compositeData.get(key) instanceof CompositeData) {
                     for (String subKey :
                             ((CompositeData) compositeData.get(key)).getCompositeType().keySet()) {
-                        subAttributes.put(key + "." + subKey, new HashMap<String, Object>());
+                        subAttributes.put(key + "." + subKey, null);
                     }
                 } else {
-                    subAttributes.put(key, new HashMap<String, Object>());
+                    subAttributes.put(key, null);
                 }
             }
             subAttributeList.put(pathKey, subAttributes);
         }
     }
 
-    protected String[] getTags(String key, String subAttribute)
-            throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
-                    ReflectionException, IOException {
+    /** Indexes the rows of a snapshot of the attribute by row key. */
+    private HashMap<String, CompositeData> indexRows(TabularData data) {
+        HashMap<String, CompositeData> rows = new HashMap<String, CompositeData>(data.size() * 2);
+        for (Object rowKey : data.keySet()) {
+            Collection keys = (Collection) rowKey;
+            rows.put(getMultiKey(keys), data.get(keys.toArray()));
+        }
+        return rows;
+    }
+
+    protected String[] getTags(CompositeData row, String subAttribute) {
         List<String> tagsList = new ArrayList<String>();
         String fullMetricKey = getAttributeName() + "." + subAttribute;
         Map<String, ?> attributeParams = getAttributesFor(fullMetricKey);
@@ -98,7 +90,7 @@ public class JmxTabularAttribute extends JmxAttribute {
                 Object resolvedValue;
 
                 if (value.startsWith("$")) {
-                    resolvedValue = getValue(key, value.substring(1));
+                    resolvedValue = getValue(row, value.substring(1));
                     if (resolvedValue != null) {
                         value = (String) resolvedValue;
                     }
@@ -110,9 +102,7 @@ public class JmxTabularAttribute extends JmxAttribute {
         String[] defaultTags = super.getTags();
         tagsList.addAll(Arrays.asList(defaultTags));
 
-        String[] tags = new String[tagsList.size()];
-        tags = tagsList.toArray(tags);
-        return tags;
+        return TagPool.internTags(tagsList);
     }
 
     private Map<String, ?> getAttributesFor(String key) {
@@ -127,109 +117,221 @@ public class JmxTabularAttribute extends JmxAttribute {
     }
 
     @Override
-    public LinkedList<HashMap<String, Object>> getMetrics()
+    public void collectMetrics(MetricBatch batch)
             throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
                     ReflectionException, IOException {
-        LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
-        HashMap<String, LinkedList<HashMap<String, Object>>> subMetrics =
-                new HashMap<String, LinkedList<HashMap<String, Object>>>();
+        HashMap<String, ArrayList<Point>> subMetrics = new HashMap<String, ArrayList<Point>>();
+        // A single read of the attribute per collection, indexed once
+        TabularData data = (TabularData) getJmxValue();
+        HashMap<String, CompositeData> rows = indexRows(data);
+        boolean valueChanged = valueAliasesChanged(data);
+        if (converter == null) {
+            // Rows share the conversions of the attribute
+            converter = getValueConverter(null);
+        }
 
         for (String dataKey : subAttributeList.keySet()) {
-            HashMap<String, HashMap<String, Object>> subSub = subAttributeList.get(dataKey);
-            for (String metricKey : subSub.keySet()) {
-                HashMap<String, Object> metric = subSub.get(metricKey);
-
-                if (metric.get(ALIAS) == null) {
-                    metric.put(ALIAS, convertMetricName(getAlias(metricKey)));
+            HashMap<String, MetricDescriptor> subSub = subAttributeList.get(dataKey);
+            CompositeData row = rows.get(dataKey);
+            for (Map.Entry<String, MetricDescriptor> pair : subSub.entrySet()) {
+                String metricKey = pair.getKey();
+                MetricDescriptor descriptor = pair.getValue();
+                if (descriptor == null || (valueChanged && isValueAlias(metricKey))) {
+                    // The alias depends on the value
+                    descriptor = resolveDescriptor(row, metricKey, data);
+                    pair.setValue(descriptor);
                 }
+                Point point = new Point(descriptor, converter.toDouble(getValue(row, metricKey)));
 
-                if (metric.get(METRIC_TYPE) == null) {
-                    metric.put(METRIC_TYPE, getMetricType(metricKey));
+                String fullMetricKey = getAttributeName() + "." + metricKey;
+                ArrayList<Point> points = subMetrics.get(fullMetricKey);
+                if (points == null) {
+                    points = new ArrayList<Point>();
+                    subMetrics.put(fullMetricKey, points);
                 }
+                points.add(point);
+            }
+        }
 
-                if (metric.get("tags") == null) {
-                    metric.put("tags", getTags(dataKey, metricKey));
+        for (Map.Entry<String, ArrayList<Point>> points : subMetrics.entrySet()) {
+            // only add explicitly included metrics
+            Map<String, ?> attributes = getAttributesFor(points.getKey());
+            if (attributes != null) {
+                addLimited(batch, attributes, points.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void resolveDescriptors()
+            throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
+                    ReflectionException, IOException {
+        HashMap<String, CompositeData> rows = indexRows((TabularData) getJmxValue());
+        for (Map.Entry<String, HashMap<String, MetricDescriptor>> row :
+                subAttributeList.entrySet()) {
+            for (Map.Entry<String, MetricDescriptor> pair : row.getValue().entrySet()) {
+                if (pair.getValue() == null && !isValueAlias(pair.getKey())) {
+                    pair.setValue(
+                            resolveDescriptor(rows.get(row.getKey()), pair.getKey(), null));
                 }
+            }
+        }
+    }
 
-                metric.put("value", castToDouble(getValue(dataKey, metricKey), null));
+    private MetricDescriptor resolveDescriptor(
+            CompositeData row, String subAttribute, Object value) {
+        return getDescriptor(
+                getAlias(subAttribute, value),
+                getMetricType(subAttribute),
+                getTags(row, subAttribute));
+    }
 
+    @Override
+    public int getMetricsCount() {
+        // Mirrors getMetrics: rows per included metric key, less the ones filtered by `limit`
+        HashMap<String, Integer> rowCounts = new HashMap<String, Integer>();
+        for (HashMap<String, MetricDescriptor> subSub : subAttributeList.values()) {
+            for (String metricKey : subSub.keySet()) {
                 String fullMetricKey = getAttributeName() + "." + metricKey;
-                if (!subMetrics.containsKey(fullMetricKey)) {
-                    subMetrics.put(fullMetricKey, new LinkedList<HashMap<String, Object>>());
-                }
-                subMetrics.get(fullMetricKey).add(metric);
+                Integer rowCount = rowCounts.get(fullMetricKey);
+                rowCounts.put(fullMetricKey, rowCount == null ? 1 : rowCount + 1);
             }
         }
 
-        for (String key : subMetrics.keySet()) {
-            // only add explicitly included metrics
-            if (getAttributesFor(key) != null) {
-                metrics.addAll(sortAndFilter(key, subMetrics.get(key)));
+        int count = 0;
+        for (Map.Entry<String, Integer> rowCount : rowCounts.entrySet()) {
+            Map<String, ?> attributes = getAttributesFor(rowCount.getKey());
+            if (attributes == null) {
+                continue;
+            }
+            Integer limit = (Integer) attributes.get("limit");
+            if (limit != null && rowCount.getValue() > limit) {
+                count += rowCount.getValue() - limit;
+            } else {
+                count += rowCount.getValue();
             }
         }
-
-        return metrics;
+        return count;
     }
 
-    private List<HashMap<String, Object>> sortAndFilter(
-            String metricKey, LinkedList<HashMap<String, Object>> metrics) {
-        Map<String, ?> attributes = getAttributesFor(metricKey);
-        if (!attributes.containsKey("limit")) {
-            return metrics;
-        }
+    /**
+     * Adds the points of a metric key, less the `limit` lowest ones, or the `limit` highest ones
+     * with `sort: asc`.
+     *
+     * <p>The dropped points are selected with a bounded heap of their values, without sorting
+     * the rows. Among equal values, the first rows are dropped.
+     */
+    private static void addLimited(
+            MetricBatch batch, Map<String, ?> attributes, ArrayList<Point> points) {
         Integer limit = (Integer) attributes.get("limit");
-        if (metrics.size() <= limit) {
-            return metrics;
+        if (limit == null || points.size() <= limit || limit <= 0) {
+            for (Point point : points) {
+                batch.add(point.descriptor, point.value);
+            }
+            return;
         }
-        MetricComparator comp = new MetricComparator();
-        Collections.sort(metrics, comp);
+
         String sort = (String) attributes.get("sort");
-        if (sort == null || sort.equals("desc")) {
-            metrics.subList(0, limit).clear();
-        } else {
-            metrics.subList(metrics.size() - limit, metrics.size()).clear();
+        int order = sort == null || sort.equals("desc") ? 1 : -1;
+        double[] dropped = selectDropped(points, limit, order);
+
+        // Drops the points beyond the heap root, and as many equal to it as the heap holds
+        double threshold = dropped[0];
+        int equalDropped = 0;
+        for (double value : dropped) {
+            if (Double.compare(value, threshold) == 0) {
+                equalDropped++;
+            }
+        }
+        for (Point point : points) {
+            int cmp = order * Double.compare(point.value, threshold);
+            if (cmp < 0) {
+                continue;
+            }
+            if (cmp == 0 && equalDropped > 0) {
+                equalDropped--;
+                continue;
+            }
+            batch.add(point.descriptor, point.value);
         }
-        return metrics;
     }
 
-    private class MetricComparator implements Comparator<HashMap<String, Object>> {
-        public int compare(HashMap<String, Object> o1, HashMap<String, Object> o2) {
-            Double v1 = (Double) o1.get("value");
-            Double v2 = (Double) o2.get("value");
-            return v1.compareTo(v2);
+    /**
+     * Returns the `limit` lowest values, or highest with a negative order, as a heap rooted at
+     * the one closest to the kept values.
+     */
+    private static double[] selectDropped(List<Point> points, int limit, int order) {
+        double[] heap = new double[limit];
+        int size = 0;
+        for (Point point : points) {
+            double value = point.value;
+            if (size < limit) {
+                // Sift up
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (order * Double.compare(heap[parent], value) >= 0) {
+                        break;
+                    }
+                    heap[child] = heap[parent];
+                    child = parent;
+                }
+                heap[child] = value;
+            } else if (order * Double.compare(value, heap[0]) < 0) {
+                // Sift down from the root
+                int parent = 0;
+                while (true) {
+                    int child = 2 * parent + 1;
+                    if (child >= limit) {
+                        break;
+                    }
+                    if (child + 1 < limit
+                            && order * Double.compare(heap[child + 1], heap[child]) > 0) {
+                        child++;
+                    }
+                    if (order * Double.compare(heap[child], value) <= 0) {
+                        break;
+                    }
+                    heap[parent] = heap[child];
+                    parent = child;
+                }
+                heap[parent] = value;
+            }
         }
+        return heap;
     }
 
-    private Object getValue(String key, String subAttribute)
-            throws AttributeNotFoundException, InstanceNotFoundException, MBeanException,
-                    ReflectionException, IOException {
+    private static class Point {
+        private final MetricDescriptor descriptor;
+        private final double value;
+
+        Point(MetricDescriptor descriptor, double value) {
+            this.descriptor = descriptor;
+            this.value = value;
+        }
+    }
 
+    /** Returns the value of a row, or null when it does not have the sub-attribute. */
+    private Object getValue(CompositeData row, String subAttribute) {
+        if (row == null) {
+            // The row was removed since the attribute was matched
+            throw new NumberFormatException();
+        }
         try {
-            Object value = this.getJmxValue();
-            String attributeType = getAttribute().getType();
-
-            TabularData data = (TabularData) value;
-            for (Object rowKey : data.keySet()) {
-                Collection keys = (Collection) rowKey;
-                String pathKey = getMultiKey(keys);
-                if (key.equals(pathKey)) {
-                    CompositeData compositeData = data.get(keys.toArray());
-                    if (subAttribute.contains(".")) {
-                        // walk down the path
-                        Object obj;
-                        for (String subPathKey : subAttribute.split("\\.")) {
-                            obj = compositeData.get(subPathKey);
-                            if (obj instanceof CompositeData) {
-                                compositeData = (CompositeData) obj;
-                            } else {
-                                return compositeData.get(subPathKey);
-                            }
-                        }
+            if (subAttribute.contains(".")) {
+                // walk down the path
+                CompositeData compositeData = row;
+                for (String subPathKey : subAttribute.split("\\.")) {
+                    Object obj = compositeData.get(subPathKey);
+                    if (obj instanceof CompositeData) {
+                        compositeData = (CompositeData) obj;
                     } else {
-                        return compositeData.get(subAttribute);
+                        return obj;
                     }
                 }
+                throw new NumberFormatException();
             }
+            return row.get(subAttribute);
         } catch (InvalidKeyException e) {
             log.warn(
                     "`"
@@ -239,11 +341,9 @@ public class JmxTabularAttribute extends JmxAttribute {
                             + "` key.");
             return null;
         }
-
-        throw new NumberFormatException();
     }
 
-    private Object getMetricType(String subAttribute) {
+    private String getMetricType(String subAttribute) {
         String subAttributeName = getAttribute().getName() + "." + subAttribute;
         String metricType = null;
 
@@ -305,7 +405,7 @@ public class JmxTabularAttribute extends JmxAttribute {
         Iterator<String> it1 = subAttributeList.keySet().iterator();
         while (it1.hasNext()) {
             String key = it1.next();
-            HashMap<String, HashMap<String, Object>> subSub = subAttributeList.get(key);
+            HashMap<String, MetricDescriptor> subSub = subAttributeList.get(key);
             Iterator<String> it2 = subSub.keySet().iterator();
             while (it2.hasNext()) {
                 String subKey = it2.next();
@@ -0,0 +1,165 @@
+package org.datadog.jmxfetch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * The points collected from an instance during a collection: one value per series, stored in
+ * columns along with the identifiers of the series descriptors.
+ *
+ * <p>Batches are owned by their instance and recycled from one collection to the next, so the
+ * reporters must not keep a batch, nor rely on its content, once they are done sending it.
+ */
+public final class MetricBatch {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final MetricDescriptors descriptors;
+    private final String checkName;
+    private int[] descriptorIds = new int[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private long[] readTimes = new long[INITIAL_CAPACITY];
+    private int size;
+    private long timestamp;
+    // Scratch arrays of the aggregation: output position by descriptor id, and points per position
+    private int[] slots;
+    private int[] counts;
+
+    /** Builds an empty batch for the series of the given registry. */
+    public MetricBatch(MetricDescriptors descriptors, String checkName) {
+        this.descriptors = descriptors;
+        this.checkName = checkName;
+    }
+
+    /** Empties the batch before a new collection. */
+    void reset(long timestamp) {
+        this.size = 0;
+        this.timestamp = timestamp;
+    }
+
+    /** Appends a point of the series. */
+    public void add(MetricDescriptor descriptor, double value) {
+        if (size == values.length) {
+            descriptorIds = Arrays.copyOf(descriptorIds, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            readTimes = Arrays.copyOf(readTimes, size * 2);
+        }
+        descriptorIds[size] = descriptor.getId();
+        values[size] = value;
+        size++;
+    }
+
+    /** Sets the read time of the points appended after the first `from` ones. */
+    void stamp(int from, long readTime) {
+        Arrays.fill(readTimes, from, size, readTime);
+    }
+
+    /**
+     * Rolls up the points of the aggregated series: the points of a series are replaced by a
+     * single one, at the position of the first, read at the time of the last.
+     */
+    void aggregate() {
+        int descriptorCount = descriptors.size();
+        if (slots == null || slots.length < descriptorCount) {
+            slots = new int[Math.max(descriptorCount, INITIAL_CAPACITY)];
+            Arrays.fill(slots, -1);
+        }
+        if (counts == null || counts.length < size) {
+            counts = new int[values.length];
+        }
+
+        int aggregated = 0;
+        for (int i = 0; i < size; i++) {
+            int id = descriptorIds[i];
+            Aggregation aggregation = descriptors.get(id).getAggregation();
+            double value = values[i];
+            int slot = aggregation == null ? -1 : slots[id];
+            if (slot < 0) {
+                // Kept as is, or first point of its series
+                if (aggregation != null) {
+                    slots[id] = aggregated;
+                    counts[aggregated] = 1;
+                }
+                descriptorIds[aggregated] = id;
+                values[aggregated] = value;
+                readTimes[aggregated] = readTimes[i];
+                aggregated++;
+                continue;
+            }
+
+            switch (aggregation.getFunction()) {
+                case Aggregation.MAX:
+                    values[slot] = Math.max(values[slot], value);
+                    break;
+                case Aggregation.MIN:
+                    values[slot] = Math.min(values[slot], value);
+                    break;
+                default:
+                    values[slot] += value;
+                    break;
+            }
+            counts[slot]++;
+            readTimes[slot] = Math.max(readTimes[slot], readTimes[i]);
+        }
+
+        for (int i = 0; i < aggregated; i++) {
+            Aggregation aggregation = descriptors.get(descriptorIds[i]).getAggregation();
+            if (aggregation != null) {
+                if (aggregation.getFunction() == Aggregation.AVG) {
+                    values[i] /= counts[i];
+                }
+                slots[descriptorIds[i]] = -1;
+            }
+        }
+        size = aggregated;
+    }
+
+    /** Drops the points appended after the first `size` ones. */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the collection time, in milliseconds since the epoch. */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    public int getDescriptorId(int index) {
+        return descriptorIds[index];
+    }
+
+    public MetricDescriptor getDescriptor(int index) {
+        return descriptors.get(descriptorIds[index]);
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Returns the `System.nanoTime()` at which the value of the point was read. Only meaningful
+     * relatively to the read times of other points.
+     */
+    public long getReadTime(int index) {
+        return readTimes[index];
+    }
+
+    /** Returns the points in the map format previously passed to the reporters. */
+    public LinkedList<HashMap<String, Object>> toMaps() {
+        LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
+        for (int i = 0; i < size; i++) {
+            HashMap<String, Object> metric = getDescriptor(i).toMap(values[i]);
+            metric.put("check_name", checkName);
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+}
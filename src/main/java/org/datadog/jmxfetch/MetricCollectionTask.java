@@ -1,28 +1,37 @@
 package org.datadog.jmxfetch;
 
 import lombok.extern.slf4j.Slf4j;
+import org.datadog.jmxfetch.reporter.Reporter;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-
+/**
+ * Collects the metrics of an instance and sends them as soon as collected, concurrently with the
+ * other instances.
+ */
 @Slf4j
-class MetricCollectionTask extends InstanceTask<LinkedList<HashMap<String, Object>>> {
-    MetricCollectionTask(Instance instance) {
+class MetricCollectionTask extends InstanceTask<MetricBatch> {
+    private final Reporter reporter;
+
+    MetricCollectionTask(Instance instance, Reporter reporter) {
         super(instance);
-        setWarning("Unable to collect metrics or refresh bean list.");
+        this.reporter = reporter;
+        setWarning("Unable to collect metrics.");
     }
 
     @Override
-    public LinkedList<HashMap<String, Object>> call() throws Exception {
+    public MetricBatch call() throws Exception {
 
         if (!instance.timeToCollect()) {
             log.debug(
                     "it is not time to collect, skipping run for instance: " + instance.getName());
 
             // Maybe raise an exception here instead...
-            return new LinkedList<HashMap<String, Object>>();
+            return instance.getEmptyMetrics();
         }
 
-        return instance.getMetrics();
+        MetricBatch metrics = instance.getMetrics();
+        if (metrics.size() > 0) {
+            reporter.sendMetrics(metrics, instance.getName(), instance.getCanonicalRateConfig());
+        }
+        return metrics;
     }
 }
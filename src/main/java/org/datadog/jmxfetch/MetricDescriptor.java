@@ -0,0 +1,118 @@
+package org.datadog.jmxfetch;
+
+import org.datadog.jmxfetch.reporter.StatsdFormat;
+
+import java.util.HashMap;
+
+/**
+ * The constant part of a series: its normalized name, metric type and tags, resolved once when
+ * the attribute is matched. Collecting a series then only reads its value.
+ *
+ * <p>Descriptors are immutable, the tags array and rendered lines they return must not be mutated.
+ */
+public final class MetricDescriptor {
+    private final int id;
+    private final String name;
+    private final String type;
+    private final String[] tags;
+    private final String seriesKey;
+    private final long seriesHash;
+    private final Aggregation aggregation;
+    private final byte[] statsdPrefix;
+    private final byte[] statsdSuffix;
+
+    MetricDescriptor(int id, String name, String type, String[] tags, Aggregation aggregation) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.tags = tags;
+        this.seriesKey = seriesKey(name, tags);
+        this.seriesHash = seriesHash(name, tags);
+        this.aggregation = aggregation;
+        this.statsdPrefix = StatsdFormat.metricPrefix(name);
+        this.statsdSuffix = StatsdFormat.metricSuffix(type, tags);
+    }
+
+    /** Returns the key identifying a series, its name followed by its tags. */
+    public static String seriesKey(String name, String[] tags) {
+        StringBuilder key = new StringBuilder(name);
+        for (String tag : tags) {
+            key.append(tag);
+        }
+        return key.toString();
+    }
+
+    /** Returns the 64-bit FNV-1a hash of a series, its name and tags being separated. */
+    public static long seriesHash(String name, String[] tags) {
+        long hash = hash(0xcbf29ce484222325L, name);
+        for (String tag : tags) {
+            hash = hash(hash ^ ',', tag);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Returns the identifier of the descriptor, unique within its instance. */
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String[] getTags() {
+        return tags;
+    }
+
+    public String getSeriesKey() {
+        return seriesKey;
+    }
+
+    /** Returns the hash of the series key. Distinct series may share a hash. */
+    public long getSeriesHash() {
+        return seriesHash;
+    }
+
+    /** Returns how the points of the series are rolled up when collected, null if they are not. */
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    /** Returns the rendered DogStatsD line of the series preceding the value: `name:`. */
+    public byte[] getStatsdPrefix() {
+        return statsdPrefix;
+    }
+
+    /** Returns the rendered DogStatsD line of the series following the value: `|type|#tags`. */
+    public byte[] getStatsdSuffix() {
+        return statsdSuffix;
+    }
+
+    /** Returns a point of the series in the map format expected by the reporters. */
+    HashMap<String, Object> toMap(double value) {
+        HashMap<String, Object> metric = new HashMap<String, Object>();
+        metric.put(JmxAttribute.ALIAS, name);
+        metric.put(JmxAttribute.VALUE, value);
+        metric.put(JmxAttribute.TAGS, tags);
+        metric.put(JmxAttribute.METRIC_TYPE, type);
+        metric.put(JmxAttribute.DESCRIPTOR, this);
+        return metric;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + seriesKey;
+    }
+}
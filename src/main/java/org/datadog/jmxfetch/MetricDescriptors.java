@@ -0,0 +1,109 @@
+package org.datadog.jmxfetch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * The descriptors of the series of an instance, indexed by identifier.
+ *
+ * <p>A series keeps its descriptor, and thus its identifier, across bean refreshes as long as it
+ * is still matched. The descriptors of the series no longer matched are pruned once the refreshed
+ * attributes are collected, and their identifiers reused.
+ */
+public final class MetricDescriptors {
+    private final HashMap<String, MetricDescriptor> descriptorsBySeries =
+            new HashMap<String, MetricDescriptor>();
+    private volatile MetricDescriptor[] descriptors = new MetricDescriptor[64];
+    // The refresh during which each descriptor was last registered, by identifier
+    private int[] generations = new int[64];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int size;
+    private int generation;
+    private volatile boolean aggregated;
+
+    /** Returns the descriptor of the series, registering it if needed. */
+    public MetricDescriptor register(String name, String type, String[] tags) {
+        return register(name, type, tags, null);
+    }
+
+    /**
+     * Returns the descriptor of the series whose points are rolled up with the given aggregation,
+     * registering it if needed.
+     */
+    public synchronized MetricDescriptor register(
+            String name, String type, String[] tags, Aggregation aggregation) {
+        String key = type + "|" + MetricDescriptor.seriesKey(name, tags);
+        if (aggregation != null) {
+            key = aggregation + "|" + key;
+        }
+        MetricDescriptor descriptor = descriptorsBySeries.get(key);
+        if (descriptor != null) {
+            generations[descriptor.getId()] = generation;
+            return descriptor;
+        }
+
+        int id = freeCount > 0 ? freeIds[--freeCount] : size++;
+        descriptor = new MetricDescriptor(id, TagPool.intern(name), type, tags, aggregation);
+        aggregated |= aggregation != null;
+        MetricDescriptor[] current = descriptors;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+            generations = Arrays.copyOf(generations, id * 2);
+        }
+        current[id] = descriptor;
+        generations[id] = generation;
+        descriptors = current;
+        descriptorsBySeries.put(key, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * Starts a bean refresh, returns its generation. The descriptors registered from then on are
+     * kept by {@link #prune(int)}.
+     */
+    public synchronized int beginRefresh() {
+        return ++generation;
+    }
+
+    /**
+     * Removes the descriptors not registered since the refresh of the given generation started.
+     * Only called once the attributes of that refresh are collected, the previous ones no longer
+     * being used.
+     */
+    public synchronized void prune(int refreshGeneration) {
+        Iterator<MetricDescriptor> it = descriptorsBySeries.values().iterator();
+        while (it.hasNext()) {
+            int id = it.next().getId();
+            if (generations[id] - refreshGeneration < 0) {
+                it.remove();
+                descriptors[id] = null;
+                if (freeCount == freeIds.length) {
+                    freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+                }
+                freeIds[freeCount++] = id;
+            }
+        }
+    }
+
+    /** Returns the descriptor with the given identifier. */
+    public MetricDescriptor get(int id) {
+        return descriptors[id];
+    }
+
+    /** Returns the number of identifiers in use, pruned ones included, bounding them. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Returns the number of descriptors registered. */
+    public synchronized int count() {
+        return descriptorsBySeries.size();
+    }
+
+    /** Returns whether some of the series are rolled up when collected. */
+    public boolean hasAggregations() {
+        return aggregated;
+    }
+}
@@ -0,0 +1,190 @@
+package org.datadog.jmxfetch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Converts aliases to metric names: camel case words are split with underscores, names are lower
+ * cased, illegal characters are replaced and underscores around dots are dropped.
+ *
+ * <p>The conversion is done in a single scan of the alias, with the same output as the reference
+ * regular expressions, which are still used for names the scan does not cover. Converted names
+ * are memoized.
+ */
+final class MetricNameConverter {
+    private static final Pattern FIRST_CAP_PATTERN = Pattern.compile("(.)([A-Z][a-z]+)");
+    private static final Pattern ALL_CAP_PATTERN = Pattern.compile("([a-z0-9])([A-Z])");
+    private static final Pattern METRIC_REPLACEMENT =
+            Pattern.compile("([^a-zA-Z0-9_.]+)|(^[^a-zA-Z]+)");
+    private static final Pattern DOT_UNDERSCORE = Pattern.compile("_*\\._*");
+    private static final int CACHE_SIZE = 10000;
+    // States of the third step
+    private static final int FIRST = 0;
+    private static final int LEADING = 1;
+    private static final int REST = 2;
+
+    private static final Cache<String, String> NAMES =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    private MetricNameConverter() {}
+
+    /** Returns the metric name of the alias. */
+    static String convert(String alias) {
+        String name = NAMES.getIfPresent(alias);
+        if (name == null) {
+            name = isAsciiLowerCase() ? scan(alias) : null;
+            if (name == null) {
+                name = convertWithRegexes(alias);
+            }
+            NAMES.put(alias, name);
+        }
+        return name;
+    }
+
+    /** The reference conversion. */
+    static String convertWithRegexes(String alias) {
+        String name = FIRST_CAP_PATTERN.matcher(alias).replaceAll("$1_$2");
+        name = ALL_CAP_PATTERN.matcher(name).replaceAll("$1_$2").toLowerCase();
+        name = METRIC_REPLACEMENT.matcher(name).replaceAll("_");
+        return DOT_UNDERSCORE.matcher(name).replaceAll(".").trim();
+    }
+
+    /** Whether lower casing ASCII letters with the default locale keeps them ASCII. */
+    private static boolean isAsciiLowerCase() {
+        String language = Locale.getDefault().getLanguage();
+        return !"tr".equals(language) && !"az".equals(language);
+    }
+
+    /**
+     * Converts an ASCII alias in a single scan, returns null if it is not ASCII.
+     *
+     * <p>Each character goes through the four steps of the reference conversion in turn:
+     *
+     * <ul>
+     *   <li>an underscore is inserted before an upper case letter starting a capitalized word, or
+     *       following a lower case letter or a digit;
+     *   <li>letters are lower cased;
+     *   <li>runs of illegal characters, or the non letters the name starts with, are replaced by
+     *       an underscore;
+     *   <li>underscores preceding or following a dot are dropped.
+     * </ul>
+     *
+     * <p>The final trim of the reference conversion is a no-op as no space is left.
+     */
+    static String scan(String alias) {
+        int length = alias.length();
+        char[] name = new char[2 * length];
+        int size = 0;
+
+        // End of the last capitalized word found, the next one cannot start before
+        int wordEnd = 0;
+        int state = FIRST;
+        // Whether the previous character was replaced by an underscore
+        boolean replacing = false;
+        // Underscores not emitted yet, dropped if a dot follows
+        int pendingUnderscores = 0;
+        boolean afterDot = false;
+
+        for (int idx = 0; idx < length; idx++) {
+            char ch = alias.charAt(idx);
+            if (ch > 0x7f) {
+                return null;
+            }
+
+            // First two steps: underscores inserted before upper case letters
+            boolean insert = false;
+            if (idx > 0 && isUpper(ch)) {
+                char previous = alias.charAt(idx - 1);
+                if (idx - 1 >= wordEnd
+                        && idx + 1 < length
+                        && isLower(alias.charAt(idx + 1))
+                        && previous != '\n'
+                        && previous != '\r') {
+                    insert = true;
+                    wordEnd = idx + 2;
+                    while (wordEnd < length && isLower(alias.charAt(wordEnd))) {
+                        wordEnd++;
+                    }
+                } else if (isLower(previous) || isDigit(previous)) {
+                    insert = true;
+                }
+            }
+
+            for (int pass = insert ? 0 : 1; pass < 2; pass++) {
+                char current = pass == 0 ? '_' : toLower(ch);
+
+                // Third step: runs of illegal characters, and leading non letters
+                boolean replaced;
+                if (state == REST) {
+                    replaced = !isLegal(current);
+                } else if (isLetter(current)) {
+                    replaced = false;
+                    state = REST;
+                } else if (state == FIRST && !isLegal(current)) {
+                    replaced = true;
+                    state = REST;
+                } else {
+                    replaced = true;
+                    state = LEADING;
+                }
+                if (replaced && replacing) {
+                    continue;
+                }
+                replacing = replaced;
+                if (replaced) {
+                    current = '_';
+                }
+
+                // Fourth step: underscores around dots
+                if (current == '_') {
+                    if (!afterDot) {
+                        pendingUnderscores++;
+                    }
+                } else if (current == '.') {
+                    pendingUnderscores = 0;
+                    afterDot = true;
+                    name[size++] = '.';
+                } else {
+                    while (pendingUnderscores > 0) {
+                        name[size++] = '_';
+                        pendingUnderscores--;
+                    }
+                    afterDot = false;
+                    name[size++] = current;
+                }
+            }
+        }
+        while (pendingUnderscores > 0) {
+            name[size++] = '_';
+            pendingUnderscores--;
+        }
+        return new String(name, 0, size);
+    }
+
+    private static boolean isUpper(char ch) {
+        return ch >= 'A' && ch <= 'Z';
+    }
+
+    private static boolean isLower(char ch) {
+        return ch >= 'a' && ch <= 'z';
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isLetter(char ch) {
+        return isLower(ch) || isUpper(ch);
+    }
+
+    private static boolean isLegal(char ch) {
+        return isLetter(ch) || isDigit(ch) || ch == '_' || ch == '.';
+    }
+
+    private static char toLower(char ch) {
+        return isUpper(ch) ? (char) (ch + ('a' - 'A')) : ch;
+    }
+}
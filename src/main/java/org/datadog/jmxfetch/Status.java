@@ -60,6 +60,8 @@ public class Status {
             String instance,
             int metricCount,
             int serviceCheckCount,
+            long beanRefreshDuration,
+            int suppressedMetricCount,
             String message,
             String status) {
         addStats(
@@ -67,6 +69,8 @@ public class Status {
                 instance,
                 metricCount,
                 serviceCheckCount,
+                beanRefreshDuration,
+                suppressedMetricCount,
                 message,
                 status,
                 INITIALIZED_CHECKS);
@@ -78,6 +82,8 @@ public class Status {
             String instance,
             int metricCount,
             int serviceCheckCount,
+            long beanRefreshDuration,
+            int suppressedMetricCount,
             String message,
             String status,
             String key) {
@@ -101,6 +107,12 @@ public class Status {
         if (serviceCheckCount != -1) {
             instStats.put("service_check_count", serviceCheckCount);
         }
+        if (beanRefreshDuration != -1) {
+            instStats.put("bean_refresh_duration_ms", beanRefreshDuration);
+        }
+        if (suppressedMetricCount != -1) {
+            instStats.put("suppressed_metric_count", suppressedMetricCount);
+        }
         instStats.put("message", message);
         instStats.put("status", status);
         checkStats.add(instStats);
@@ -109,7 +121,7 @@ public class Status {
     }
 
     public void addInitFailedCheck(String checkName, String message, String status) {
-        addStats(checkName, null, -1, -1, message, status, FAILED_CHECKS);
+        addStats(checkName, null, -1, -1, -1, -1, message, status, FAILED_CHECKS);
     }
 
     private String generateYaml() {
@@ -0,0 +1,48 @@
+package org.datadog.jmxfetch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Collection;
+
+/**
+ * Process wide pool of the tags and metric names, so that the many series sharing a tag, or a
+ * whole tag set, reference a single copy of it.
+ *
+ * <p>Pooled values are weakly referenced: they are dropped once no series uses them anymore.
+ * Pooled tag arrays are shared and must not be mutated.
+ */
+final class TagPool {
+    private static final int MAX_TAG_SETS = 100000;
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Cache<ImmutableList<String>, String[]> TAG_SETS =
+            CacheBuilder.newBuilder().maximumSize(MAX_TAG_SETS).weakValues().build();
+
+    private TagPool() {}
+
+    /** Returns the pooled copy of a tag or a metric name. */
+    static String intern(String value) {
+        return STRINGS.intern(value);
+    }
+
+    /** Returns the pooled array holding the given tags, in order. */
+    static String[] internTags(Collection<String> tags) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (String tag : tags) {
+            builder.add(intern(tag));
+        }
+        ImmutableList<String> key = builder.build();
+
+        String[] pooled = TAG_SETS.getIfPresent(key);
+        if (pooled == null) {
+            // Concurrent misses may pool distinct but equal arrays, the last one wins
+            pooled = key.toArray(new String[key.size()]);
+            TAG_SETS.put(key, pooled);
+        }
+        return pooled;
+    }
+}
@@ -0,0 +1,113 @@
+package org.datadog.jmxfetch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts the values read from an attribute to doubles, through the `values` conversion table
+ * of its configuration if any.
+ *
+ * <p>Converters are built when the attribute is matched: the most likely value class is checked
+ * first given the declared attribute type, and the conversion table targets are converted once.
+ * Converting a value then allocates nothing.
+ */
+final class ValueConverter {
+    private static final int NUMBER = 0;
+    private static final int BOOLEAN = 1;
+    private static final int STRING = 2;
+
+    private static final ValueConverter NUMBERS = new ValueConverter(NUMBER, null);
+    private static final ValueConverter BOOLEANS = new ValueConverter(BOOLEAN, null);
+    private static final ValueConverter STRINGS = new ValueConverter(STRING, null);
+
+    private final int expected;
+    private final HashMap<Object, Object> conversions;
+    private final Object defaultValue;
+
+    private ValueConverter(int expected, Map<Object, Object> conversions) {
+        this.expected = expected;
+        if (conversions == null || conversions.isEmpty()) {
+            this.conversions = null;
+            this.defaultValue = null;
+            return;
+        }
+        this.conversions = new HashMap<Object, Object>(conversions.size() * 2);
+        for (Map.Entry<Object, Object> conversion : conversions.entrySet()) {
+            this.conversions.put(conversion.getKey(), precompute(conversion.getValue()));
+        }
+        this.defaultValue = this.conversions.get("default");
+    }
+
+    /**
+     * Returns the converter for values of the declared type, going through the conversion table
+     * if not empty.
+     */
+    static ValueConverter forType(String type, Map<Object, Object> conversions) {
+        int expected = expectedClass(type);
+        if (conversions == null || conversions.isEmpty()) {
+            return expected == BOOLEAN ? BOOLEANS : expected == STRING ? STRINGS : NUMBERS;
+        }
+        return new ValueConverter(expected, conversions);
+    }
+
+    private static int expectedClass(String type) {
+        if (type == null) {
+            return NUMBER;
+        }
+        if (type.startsWith("class ")) {
+            type = type.substring("class ".length());
+        }
+        if ("boolean".equals(type) || "java.lang.Boolean".equals(type)) {
+            return BOOLEAN;
+        } else if ("java.lang.String".equals(type)) {
+            return STRING;
+        }
+        return NUMBER;
+    }
+
+    /** Converts the conversion table targets to doubles when they can be. */
+    private static Object precompute(Object target) {
+        try {
+            return Double.valueOf(cast(target, NUMBER));
+        } catch (NumberFormatException e) {
+            // Fails when a value is converted to it, as before
+            return target;
+        }
+    }
+
+    /** Converts the value, throws a `NumberFormatException` if it is not a number. */
+    double toDouble(Object value) {
+        if (conversions != null) {
+            Object converted = conversions.get(value);
+            value = converted != null ? converted : defaultValue;
+        }
+        return cast(value, expected);
+    }
+
+    private static double cast(Object value, int expected) {
+        switch (expected) {
+            case BOOLEAN:
+                if (value instanceof Boolean) {
+                    return (Boolean) value ? 1.0 : 0.0;
+                }
+                break;
+            case STRING:
+                if (value instanceof String) {
+                    return Double.parseDouble((String) value);
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Number, including atomic numbers
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            return Double.parseDouble((String) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+        throw new NumberFormatException();
+    }
+}
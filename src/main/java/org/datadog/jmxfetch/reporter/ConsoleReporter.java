@@ -18,7 +18,7 @@ public class ConsoleReporter extends Reporter {
             new LinkedList<HashMap<String, Object>>();
 
     @Override
-    protected void sendMetricPoint(
+    protected synchronized void sendMetricPoint(
             String metricType, String metricName, double value, String[] tags) {
         String tagString = "[" + Joiner.on(",").join(tags) + "]";
         log.info(
@@ -33,7 +33,7 @@ public class ConsoleReporter extends Reporter {
     }
 
     /** Returns list of metrics to report and clears stored metric map. */
-    public LinkedList<HashMap<String, Object>> getMetrics() {
+    public synchronized LinkedList<HashMap<String, Object>> getMetrics() {
         LinkedList<HashMap<String, Object>> returnedMetrics =
                 new LinkedList<HashMap<String, Object>>();
         for (HashMap<String, Object> map : metrics) {
@@ -44,7 +44,8 @@ public class ConsoleReporter extends Reporter {
     }
 
     /** Adds service check to report on. */
-    public void doSendServiceCheck(String checkName, String status, String message, String[] tags) {
+    public synchronized void doSendServiceCheck(
+            String checkName, String status, String message, String[] tags) {
         String tagString = "";
         if (tags != null && tags.length > 0) {
             tagString = "[" + Joiner.on(",").join(tags) + "]";
@@ -61,7 +62,7 @@ public class ConsoleReporter extends Reporter {
     }
 
     /** Returns list of service checks to report and clears stored service check map.. */
-    public LinkedList<HashMap<String, Object>> getServiceChecks() {
+    public synchronized LinkedList<HashMap<String, Object>> getServiceChecks() {
         LinkedList<HashMap<String, Object>> returnedServiceChecks =
                 new LinkedList<HashMap<String, Object>>();
         for (HashMap<String, Object> map : serviceChecks) {
@@ -0,0 +1,402 @@
+package org.datadog.jmxfetch.reporter;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.Level;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.datadog.jmxfetch.util.CustomLogger;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the points to several reporters, the sinks, each from its own thread.
+ *
+ * <p>The rates and counter deltas are computed once, here, and the resulting points are published
+ * in a bounded ring buffer that each sink drains at its own pace. When a sink falls a whole ring
+ * behind, its overflow policy applies: either the collection waits for it, or its oldest points
+ * are dropped. The lag, drops and throughput of each sink are sent to all of them as
+ * `jmx.reporter.sink.*` metrics, tagged with the sink.
+ *
+ * <p>The instances compute their points concurrently, only the publication of a point is
+ * serialized. A collection waiting for a sink does not hold the publication: the other ones wait
+ * for the sink too, for as long as it makes progress.
+ */
+@Slf4j
+public class FanoutReporter extends Reporter {
+    /** The default number of points the ring buffer holds. */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    static final String LAG_METRIC = "jmx.reporter.sink.lag";
+    static final String DROPPED_METRIC = "jmx.reporter.sink.dropped";
+    static final String SENT_METRIC = "jmx.reporter.sink.sent";
+
+    private static final int DRAIN_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FULL_WAIT_MILLIS = 1;
+    private static final long DEFAULT_STALL_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private static final long STATS_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    private static final Object FLUSH = new Object();
+
+    /** What happens to the points a sink is too slow to take. */
+    public enum OverflowPolicy {
+        /**
+         * The collection waits for the sink. A sink stalled for the stall timeout loses its oldest
+         * points instead, until it makes progress again.
+         */
+        BLOCK,
+        /** The oldest points not taken by the sink are dropped. */
+        DROP
+    }
+
+    // The ring buffer, written by the publishing thread only
+    private final int mask;
+    private final Object[] items;
+    private final double[] values;
+    private final AtomicLong published = new AtomicLong();
+    // Guards the publication, the ring buffer has a single producer at a time
+    private final Object publishLock = new Object();
+    private final long stallTimeout;
+    private final MetricDescriptors statsDescriptors = new MetricDescriptors();
+    private volatile Sink[] sinks = new Sink[0];
+    private long lastStats = System.currentTimeMillis();
+
+    /** A point sent without a descriptor. */
+    private static final class NamedPoint {
+        private final String type;
+        private final String name;
+        private final String[] tags;
+
+        private NamedPoint(String type, String name, String[] tags) {
+            this.type = type;
+            this.name = name;
+            this.tags = tags;
+        }
+    }
+
+    private static final class ServiceCheck {
+        private final String name;
+        private final String status;
+        private final String message;
+        private final String[] tags;
+
+        private ServiceCheck(String name, String status, String message, String[] tags) {
+            this.name = name;
+            this.status = status;
+            this.message = message;
+            this.tags = tags;
+        }
+    }
+
+    /** A reporter draining the ring buffer on its own thread. */
+    public final class Sink {
+        private final String name;
+        private final Reporter reporter;
+        private final OverflowPolicy policy;
+        private final Thread thread;
+        // The next sequence to be taken, moved forward by the producer when dropping
+        private final AtomicLong cursor;
+        private final MetricDescriptor lagMetric;
+        private final MetricDescriptor droppedMetric;
+        private final MetricDescriptor sentMetric;
+        private volatile boolean closed;
+        // Written by the producer only
+        private volatile long dropped;
+        private long reportedDropped;
+        // Since when the producer waits for the sink, and how far the sink had delivered then
+        private boolean waiting;
+        private long waitStart;
+        private long waitDelivered;
+        // Written by the sink thread only: the sequences up to `delivered` were handled
+        private volatile long delivered;
+        private volatile long sent;
+        private long reportedSent;
+
+        private Sink(String name, Reporter reporter, OverflowPolicy policy, long start) {
+            this.name = name;
+            this.reporter = reporter;
+            this.policy = policy;
+            this.cursor = new AtomicLong(start);
+            this.delivered = start;
+            String[] tags = {"sink:" + name};
+            this.lagMetric = statsDescriptors.register(LAG_METRIC, "gauge", tags);
+            this.droppedMetric = statsDescriptors.register(DROPPED_METRIC, "monotonic_count", tags);
+            this.sentMetric = statsDescriptors.register(SENT_METRIC, "monotonic_count", tags);
+            Runnable drainer = new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            };
+            this.thread = new Thread(drainer, "jmxfetch-sink-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Makes sure the sink does not need the sequences up to `wrapPoint` anymore. Returns false
+         * if it waited for the sink instead, the publication lock being released meanwhile.
+         */
+        private boolean makeRoom(long wrapPoint) {
+            if (cursor.get() > wrapPoint) {
+                waiting = false;
+                return true;
+            }
+            if (closed || policy == OverflowPolicy.DROP || isStalled()) {
+                drop(wrapPoint);
+                return true;
+            }
+            LockSupport.unpark(thread);
+            try {
+                publishLock.wait(FULL_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop(wrapPoint);
+                return true;
+            }
+            return false;
+        }
+
+        /** Returns whether the sink delivered nothing for the stall timeout, while waited for. */
+        private boolean isStalled() {
+            long now = System.nanoTime();
+            long current = delivered;
+            if (!waiting || current != waitDelivered) {
+                waiting = true;
+                waitStart = now;
+                waitDelivered = current;
+                return false;
+            }
+            return now - waitStart > stallTimeout;
+        }
+
+        private void drop(long wrapPoint) {
+            // The sink thread moves the cursor too
+            long current = cursor.get();
+            while (current <= wrapPoint) {
+                if (cursor.compareAndSet(current, wrapPoint + 1)) {
+                    dropped += wrapPoint + 1 - current;
+                    return;
+                }
+                current = cursor.get();
+            }
+        }
+
+        private void drain() {
+            Object[] batchItems = new Object[DRAIN_BATCH];
+            double[] batchValues = new double[DRAIN_BATCH];
+            while (!closed) {
+                long start = cursor.get();
+                delivered = start;
+                long available = published.get() - start;
+                if (available <= 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    continue;
+                }
+                int count = (int) Math.min(available, DRAIN_BATCH);
+                for (int i = 0; i < count; i++) {
+                    int index = (int) (start + i) & mask;
+                    batchItems[i] = items[index];
+                    batchValues[i] = values[index];
+                }
+                // Taken only if the producer did not drop them meanwhile
+                if (cursor.compareAndSet(start, start + count)) {
+                    deliver(batchItems, batchValues, count);
+                    delivered = start + count;
+                }
+                Arrays.fill(batchItems, 0, count, null);
+            }
+        }
+
+        private void deliver(Object[] batchItems, double[] batchValues, int count) {
+            int points = 0;
+            for (int i = 0; i < count; i++) {
+                Object item = batchItems[i];
+                try {
+                    if (item instanceof MetricDescriptor) {
+                        reporter.sendMetricPoint((MetricDescriptor) item, batchValues[i]);
+                        points++;
+                    } else if (item instanceof NamedPoint) {
+                        NamedPoint point = (NamedPoint) item;
+                        reporter.sendMetricPoint(
+                                point.type, point.name, batchValues[i], point.tags);
+                        points++;
+                    } else if (item instanceof ServiceCheck) {
+                        ServiceCheck check = (ServiceCheck) item;
+                        reporter.doSendServiceCheck(
+                                check.name, check.status, check.message, check.tags);
+                    } else if (item == FLUSH) {
+                        reporter.flush();
+                    }
+                } catch (RuntimeException e) {
+                    CustomLogger.laconic(
+                            log,
+                            Level.WARN,
+                            "Unable to send to the " + name + " reporter: " + e,
+                            0);
+                }
+            }
+            sent += points;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Reporter getReporter() {
+            return reporter;
+        }
+
+        public OverflowPolicy getPolicy() {
+            return policy;
+        }
+
+        /** Returns the number of entries published but not handled by the sink yet. */
+        public long getLag() {
+            return Math.max(0, published.get() - delivered);
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+    }
+
+    /** Constructor, with a ring buffer of `capacity` points, rounded up to a power of two. */
+    public FanoutReporter(int capacity) {
+        this(capacity, DEFAULT_STALL_TIMEOUT);
+    }
+
+    FanoutReporter(int capacity, long stallTimeout) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.items = new Object[size];
+        this.values = new double[size];
+        this.stallTimeout = stallTimeout;
+    }
+
+    /** Adds a sink, taking the points published from now on. */
+    public Sink addSink(String name, Reporter reporter, OverflowPolicy policy) {
+        synchronized (publishLock) {
+            Sink sink = new Sink(name, reporter, policy, published.get());
+            Sink[] current = sinks;
+            Sink[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = sink;
+            sinks = updated;
+            sink.thread.start();
+            return sink;
+        }
+    }
+
+    public Sink[] getSinks() {
+        return sinks.clone();
+    }
+
+    /** Stops the sinks, without waiting for them to take the pending points. */
+    public void close() {
+        for (Sink sink : sinks) {
+            sink.closed = true;
+            LockSupport.unpark(sink.thread);
+        }
+    }
+
+    private void publish(Object item, double value) {
+        synchronized (publishLock) {
+            long sequence;
+            boolean room;
+            do {
+                // Read again after waiting: other points may have been published meanwhile
+                sequence = published.get();
+                long wrapPoint = sequence - items.length;
+                room = true;
+                for (Sink sink : sinks) {
+                    if (!sink.makeRoom(wrapPoint)) {
+                        room = false;
+                        break;
+                    }
+                }
+            } while (!room);
+            int index = (int) sequence & mask;
+            items[index] = item;
+            values[index] = value;
+            published.lazySet(sequence + 1);
+        }
+    }
+
+    @Override
+    protected void sendMetricPoint(MetricDescriptor metric, double value) {
+        publish(metric, value);
+    }
+
+    protected void sendMetricPoint(
+            String metricType, String metricName, double value, String[] tags) {
+        publish(new NamedPoint(metricType, metricName, tags), value);
+    }
+
+    protected void doSendServiceCheck(
+            String checkName, String status, String message, String[] tags) {
+        publish(new ServiceCheck(checkName, status, message, tags), 0);
+    }
+
+    @Override
+    protected void flush() {
+        boolean publishStats = false;
+        synchronized (publishLock) {
+            long now = System.currentTimeMillis();
+            if (now - lastStats >= STATS_INTERVAL) {
+                lastStats = now;
+                publishStats = true;
+            }
+        }
+        if (publishStats) {
+            publishSinkStats();
+        }
+        publish(FLUSH, 0);
+        for (Sink sink : sinks) {
+            LockSupport.unpark(sink.thread);
+        }
+    }
+
+    /** Publishes the lag, and the points dropped and sent since last time, of each sink. */
+    void publishSinkStats() {
+        for (Sink sink : sinks) {
+            long lag = sink.getLag();
+            long droppedDelta;
+            long sentDelta;
+            synchronized (publishLock) {
+                long dropped = sink.dropped;
+                long sent = sink.sent;
+                droppedDelta = dropped - sink.reportedDropped;
+                sentDelta = sent - sink.reportedSent;
+                sink.reportedDropped = dropped;
+                sink.reportedSent = sent;
+            }
+            publish(sink.lagMetric, lag);
+            publish(sink.droppedMetric, droppedDelta);
+            publish(sink.sentMetric, sentDelta);
+        }
+    }
+
+    public void displayMetricReached() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void displayMatchingAttributeName(JmxAttribute jmxAttribute, int rank, int limit) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void displayInstanceName(Instance instance) {
+        throw new UnsupportedOperationException();
+    }
+}
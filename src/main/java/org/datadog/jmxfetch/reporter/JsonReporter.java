@@ -1,58 +1,114 @@
 package org.datadog.jmxfetch.reporter;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.datadog.jmxfetch.Instance;
 import org.datadog.jmxfetch.JmxAttribute;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.OutputStream;
 
+/**
+ * Streams the points as JSON, each through the same generator. The points sent since the previous
+ * service check are written as a block, closed by the next service check:
+ *
+ * <pre>
+ * === JSON ===
+ * [ { "aggregator" : { "metrics" : [ ... ] } } ]
+ * </pre>
+ *
+ * <p>Nothing is kept once written, the output is flushed after each instance.
+ */
 @Slf4j
 public class JsonReporter extends Reporter {
+    private static final String BLOCK_HEADER = "=== JSON ===\n";
 
-    private LinkedList<HashMap<String, Object>> metrics = new LinkedList<HashMap<String, Object>>();
+    private final JsonGenerator generator;
+    private boolean blockOpen;
 
-    protected void sendMetricPoint(
+    /** Reporter writing to the standard output. */
+    public JsonReporter() {
+        this(System.out);
+    }
+
+    /** Reporter writing to the given stream, which is not closed. */
+    public JsonReporter(OutputStream out) {
+        JsonGenerator jsonGenerator;
+        try {
+            jsonGenerator = new JsonFactory().createGenerator(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't create the JSON generator", e);
+        }
+        jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jsonGenerator.setPrettyPrinter(new DefaultPrettyPrinter(""));
+        this.generator = jsonGenerator;
+    }
+
+    private void openBlock() throws IOException {
+        if (blockOpen) {
+            return;
+        }
+        generator.writeRaw(BLOCK_HEADER);
+        generator.writeStartArray();
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("aggregator");
+        generator.writeArrayFieldStart("metrics");
+        blockOpen = true;
+    }
+
+    protected synchronized void sendMetricPoint(
             String metricType, String metricName, double value, String[] tags) {
         long currentTime = System.currentTimeMillis() / 1000L;
-        List<Object> point = new ArrayList<Object>();
-        point.add(currentTime);
-        point.add(value);
-        List<Object> points = new ArrayList<Object>();
-        points.add(point);
-        HashMap<String, Object> metric = new HashMap<String, Object>();
-        metric.put("host", "default");
-        metric.put("interval", 0);
-        metric.put("source_type_name", "JMX");
-        metric.put("metric", metricName);
-        metric.put("points", points);
-        metric.put("tags", tags);
-        metric.put("type", metricType);
-        metrics.add(metric);
+        try {
+            openBlock();
+            generator.writeStartObject();
+            generator.writeStringField("host", "default");
+            generator.writeNumberField("interval", 0);
+            generator.writeStringField("source_type_name", "JMX");
+            generator.writeStringField("metric", metricName);
+            generator.writeArrayFieldStart("points");
+            generator.writeStartArray();
+            generator.writeNumber(currentTime);
+            generator.writeNumber(value);
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("tags");
+            for (String tag : tags) {
+                generator.writeString(tag);
+            }
+            generator.writeEndArray();
+            generator.writeStringField("type", metricType);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            log.error("Couln't produce JSON output", e);
+        }
     }
 
-    /** Use the service check callback to display the JSON. */
-    public void doSendServiceCheck(String checkName, String status, String message, String[] tags) {
-        HashMap<String, Object> aggregator = new HashMap<String, Object>();
-        aggregator.put("metrics", metrics);
-        HashMap<String, Object> serie = new HashMap<String, Object>();
-        serie.put("aggregator", aggregator);
-        List<Object> series = new ArrayList<Object>();
-        series.add(serie);
+    /** Use the service check callback to close the block of the points sent since the last one. */
+    public synchronized void doSendServiceCheck(
+            String checkName, String status, String message, String[] tags) {
+        try {
+            openBlock();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeRaw('\n');
+            blockOpen = false;
+        } catch (IOException e) {
+            log.error("Couln't produce JSON output", e);
+        }
+    }
 
-        System.out.println("=== JSON ===");
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+    @Override
+    protected synchronized void flush() {
         try {
-            mapper.writeValue(System.out, series);
+            generator.flush();
         } catch (IOException e) {
-            log.error("Couln't produce JSON output");
+            log.error("Couln't produce JSON output", e);
         }
     }
 
@@ -0,0 +1,101 @@
+package org.datadog.jmxfetch.reporter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latest value of each series, and when it was set, by slot. Setting and reading the values
+ * is lock-free, only the allocation of a slot is synchronized.
+ *
+ * <p>The values are kept as raw double bits in fixed-size chunks, added as slots are allocated,
+ * so that a chunk never moves once published. A released slot is reused only after the next call
+ * to {@link #reuseReleased()}, a point being set concurrently with its release is thus lost rather
+ * than set on another series.
+ */
+final class LatestValues {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicLongArray[] values = new AtomicLongArray[0];
+    private volatile AtomicLongArray[] updateTimes = new AtomicLongArray[0];
+    private int size;
+    private int[] released = new int[16];
+    private int releasedCount;
+    private int[] free = new int[16];
+    private int freeCount;
+
+    /** Allocates a slot, whose value is 0 until set. */
+    synchronized int allocate() {
+        if (freeCount > 0) {
+            int slot = free[--freeCount];
+            values[slot >> CHUNK_SHIFT].set(slot & CHUNK_MASK, 0L);
+            updateTimes[slot >> CHUNK_SHIFT].set(slot & CHUNK_MASK, 0L);
+            return slot;
+        }
+        int slot = size;
+        if (slot >> CHUNK_SHIFT == values.length) {
+            AtomicLongArray[] newValues = new AtomicLongArray[values.length + 1];
+            AtomicLongArray[] newUpdateTimes = new AtomicLongArray[values.length + 1];
+            System.arraycopy(values, 0, newValues, 0, values.length);
+            System.arraycopy(updateTimes, 0, newUpdateTimes, 0, values.length);
+            newValues[values.length] = new AtomicLongArray(CHUNK_SIZE);
+            newUpdateTimes[values.length] = new AtomicLongArray(CHUNK_SIZE);
+            // The update times are published first, the values array guards the slot
+            updateTimes = newUpdateTimes;
+            values = newValues;
+        }
+        size++;
+        return slot;
+    }
+
+    /** Releases a slot, to be reused once `reuseReleased` is called. */
+    synchronized void release(int slot) {
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, releasedCount * 2);
+        }
+        released[releasedCount++] = slot;
+    }
+
+    /** Makes the slots released so far available to `allocate`. */
+    synchronized void reuseReleased() {
+        if (freeCount + releasedCount > free.length) {
+            free = Arrays.copyOf(free, Math.max(free.length * 2, freeCount + releasedCount));
+        }
+        System.arraycopy(released, 0, free, freeCount, releasedCount);
+        freeCount += releasedCount;
+        releasedCount = 0;
+    }
+
+    /** Returns the number of slots allocated, released ones included. */
+    synchronized int size() {
+        return size;
+    }
+
+    void set(int slot, double value, long time) {
+        values[slot >> CHUNK_SHIFT].set(slot & CHUNK_MASK, Double.doubleToRawLongBits(value));
+        updateTimes[slot >> CHUNK_SHIFT].lazySet(slot & CHUNK_MASK, time);
+    }
+
+    /** Adds to the value of the slot, atomically. */
+    void add(int slot, double delta, long time) {
+        AtomicLongArray chunk = values[slot >> CHUNK_SHIFT];
+        int index = slot & CHUNK_MASK;
+        long current;
+        do {
+            current = chunk.get(index);
+        } while (!chunk.compareAndSet(
+                index,
+                current,
+                Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta)));
+        updateTimes[slot >> CHUNK_SHIFT].lazySet(index, time);
+    }
+
+    double get(int slot) {
+        return Double.longBitsToDouble(values[slot >> CHUNK_SHIFT].get(slot & CHUNK_MASK));
+    }
+
+    long getUpdateTime(int slot) {
+        return updateTimes[slot >> CHUNK_SHIFT].get(slot & CHUNK_MASK);
+    }
+}
@@ -0,0 +1,476 @@
+package org.datadog.jmxfetch.reporter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.Status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reporter keeping the latest value of each series, served on `/metrics` in the OpenMetrics
+ * text format for Prometheus to scrape.
+ *
+ * <p>The line prefix of a series, its name and labels, is rendered once when the series is first
+ * sent. Sending a point then only sets its value in the store, and a scrape writes the prefixes
+ * and values of the series in a reused buffer. Monotonic counts are exposed as counters, summing
+ * the deltas sent, the other metrics as gauges. Series not sent within the stale window, 10
+ * minutes by default, are not exposed, and are dropped when new series are registered.
+ */
+@Slf4j
+public class PrometheusReporter extends Reporter {
+    static final String CONTENT_TYPE =
+            "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    static final long DEFAULT_STALE_AFTER = TimeUnit.MINUTES.toMillis(10);
+    private static final byte[] EOF = "# EOF\n".getBytes(StatsdFormat.UTF_8);
+    private static final byte[] NAN = "NaN".getBytes(StatsdFormat.UTF_8);
+    private static final byte[] POSITIVE_INFINITY = "+Inf".getBytes(StatsdFormat.UTF_8);
+    private static final byte[] NEGATIVE_INFINITY = "-Inf".getBytes(StatsdFormat.UTF_8);
+    // Beyond, integral doubles are written by Double.toString
+    private static final double MAX_INTEGRAL = 1e15;
+
+    private final String host;
+    private final HttpServer server;
+    private final LatestValues values = new LatestValues();
+    private final ConcurrentHashMap<String, Series> seriesByKey =
+            new ConcurrentHashMap<String, Series>();
+    // Guarded by the monitor of the families
+    private final HashMap<String, Family> familiesByName = new HashMap<String, Family>();
+    private long reclaimTime = System.currentTimeMillis();
+    private volatile long staleAfter = DEFAULT_STALE_AFTER;
+    private volatile Family[] families = new Family[0];
+    // Guarded by the monitor of the server
+    private byte[] body = new byte[8192];
+
+    /** A series, and the next one sharing its key. */
+    private static final class Series {
+        private final String key;
+        private final String name;
+        private final String type;
+        private final String[] tags;
+        private final int slot;
+        private final byte[] prefix;
+        private volatile Series next;
+
+        private Series(
+                String key, String name, String type, String[] tags, int slot, byte[] prefix) {
+            this.key = key;
+            this.name = name;
+            this.type = type;
+            this.tags = tags;
+            this.slot = slot;
+            this.prefix = prefix;
+        }
+
+        private boolean matches(String name, String type, String[] tags) {
+            return this.name.equals(name)
+                    && this.type.equals(type)
+                    && Arrays.equals(this.tags, tags);
+        }
+    }
+
+    /** The series sharing a metric name, exposed together under a single type. */
+    private static final class Family {
+        private final String name;
+        private final boolean counter;
+        private final byte[] header;
+        private volatile Series[] series = new Series[16];
+        private volatile int size;
+
+        private Family(String name, boolean counter) {
+            this.name = name;
+            this.counter = counter;
+            this.header =
+                    ("# TYPE " + name + (counter ? " counter\n" : " gauge\n"))
+                            .getBytes(StatsdFormat.UTF_8);
+        }
+
+        private void add(Series added) {
+            Series[] current = series;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+                series = current;
+            }
+            current[size] = added;
+            size++;
+        }
+    }
+
+    /** Constructor, serving the metrics on the given host and port. */
+    public PrometheusReporter(String host, int port) {
+        this.host = host;
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Failed to serve the metrics on " + host + ":" + port, e);
+        }
+        server.createContext(
+                "/metrics",
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        scrape(exchange);
+                    }
+                });
+        server.start();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            synchronized (server) {
+                int length = render(System.currentTimeMillis());
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body, 0, length);
+                out.flush();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Writes the exposition into the body buffer, returns its length. */
+    int render(long now) {
+        int length = 0;
+        for (Family family : families) {
+            int size = family.size;
+            Series[] familySeries = family.series;
+            int familyStart = length;
+            length = write(family.header, length);
+            boolean exposed = false;
+            for (int i = 0; i < size; i++) {
+                Series series = familySeries[i];
+                if (now - values.getUpdateTime(series.slot) > staleAfter) {
+                    continue;
+                }
+                ensureCapacity(length + series.prefix.length + StatsdFormat.MAX_VALUE_LENGTH + 1);
+                length = write(series.prefix, length);
+                length = formatValue(values.get(series.slot), body, length);
+                body[length++] = '\n';
+                exposed = true;
+            }
+            if (!exposed) {
+                length = familyStart;
+            }
+        }
+        return write(EOF, length);
+    }
+
+    /**
+     * Writes the value as OpenMetrics expects it, returns the offset following it. Integral values
+     * are written without a fraction, the others with as many digits as needed to be read back.
+     */
+    static int formatValue(double value, byte[] dest, int offset) {
+        byte[] special = null;
+        if (Double.isNaN(value)) {
+            special = NAN;
+        } else if (Double.isInfinite(value)) {
+            special = value > 0 ? POSITIVE_INFINITY : NEGATIVE_INFINITY;
+        }
+        if (special != null) {
+            System.arraycopy(special, 0, dest, offset, special.length);
+            return offset + special.length;
+        }
+        if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL) {
+            return StatsdFormat.formatLong((long) value, dest, offset);
+        }
+        String digits = Double.toString(value);
+        for (int i = 0; i < digits.length(); i++) {
+            dest[offset++] = (byte) digits.charAt(i);
+        }
+        return offset;
+    }
+
+    private int write(byte[] bytes, int offset) {
+        ensureCapacity(offset + bytes.length);
+        System.arraycopy(bytes, 0, body, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > body.length) {
+            body = Arrays.copyOf(body, Math.max(capacity, body.length * 2));
+        }
+    }
+
+    /** Returns the series, registering it if it was never sent. */
+    private Series getSeries(String seriesKey, String name, String type, String[] tags) {
+        Series series = seriesByKey.get(seriesKey);
+        for (Series candidate = series; candidate != null; candidate = candidate.next) {
+            if (candidate.matches(name, type, tags)) {
+                return candidate;
+            }
+        }
+        return register(seriesKey, name, type, tags);
+    }
+
+    private Series register(String seriesKey, String name, String type, String[] tags) {
+        synchronized (familiesByName) {
+            long now = System.currentTimeMillis();
+            if (now - reclaimTime > staleAfter) {
+                reclaim(now);
+            }
+
+            Series first = seriesByKey.get(seriesKey);
+            Series last = null;
+            for (Series candidate = first; candidate != null; candidate = candidate.next) {
+                if (candidate.matches(name, type, tags)) {
+                    return candidate;
+                }
+                last = candidate;
+            }
+
+            boolean counter = "monotonic_count".equals(type);
+            String familyName = sanitizeName(name);
+            if (counter && familyName.endsWith("_total")) {
+                familyName = familyName.substring(0, familyName.length() - "_total".length());
+            }
+            Family family = familiesByName.get(familyName);
+            if (family == null) {
+                family = new Family(familyName, counter);
+                familiesByName.put(familyName, family);
+                Family[] current = families;
+                Family[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = family;
+                families = updated;
+            }
+
+            Series series =
+                    new Series(
+                            seriesKey,
+                            name,
+                            type,
+                            tags,
+                            values.allocate(),
+                            renderPrefix(family, tags));
+            family.add(series);
+            if (last == null) {
+                seriesByKey.put(seriesKey, series);
+            } else {
+                last.next = series;
+            }
+            return series;
+        }
+    }
+
+    /**
+     * Drops the series not sent within the stale window, and the families left empty. Their
+     * slots are reused from the next reclaim on, once no point can still be set on them.
+     */
+    void reclaim(long now) {
+        synchronized (familiesByName) {
+            values.reuseReleased();
+            // The families are compacted in place, out of a scrape
+            synchronized (server) {
+                Family[] current = families;
+                Family[] kept = new Family[current.length];
+                int keptCount = 0;
+                for (Family family : current) {
+                    Series[] familySeries = family.series;
+                    int size = family.size;
+                    int left = 0;
+                    for (int i = 0; i < size; i++) {
+                        Series series = familySeries[i];
+                        // A series just registered is not set yet
+                        long updateTime = values.getUpdateTime(series.slot);
+                        if (updateTime != 0 && now - updateTime > staleAfter) {
+                            unlink(series);
+                            values.release(series.slot);
+                        } else {
+                            familySeries[left++] = series;
+                        }
+                    }
+                    Arrays.fill(familySeries, left, size, null);
+                    family.size = left;
+                    if (left > 0) {
+                        kept[keptCount++] = family;
+                    } else {
+                        familiesByName.remove(family.name);
+                    }
+                }
+                families = Arrays.copyOf(kept, keptCount);
+            }
+            reclaimTime = now;
+        }
+    }
+
+    private void unlink(Series series) {
+        Series first = seriesByKey.get(series.key);
+        if (first == series) {
+            if (series.next == null) {
+                seriesByKey.remove(series.key);
+            } else {
+                seriesByKey.put(series.key, series.next);
+            }
+            return;
+        }
+        for (Series previous = first; previous != null; previous = previous.next) {
+            if (previous.next == series) {
+                previous.next = series.next;
+                return;
+            }
+        }
+    }
+
+    /** Renders the sample name and labels of a series: `name{label="value",...} `. */
+    private static byte[] renderPrefix(Family family, String[] tags) {
+        StringBuilder prefix = new StringBuilder(family.name);
+        if (family.counter) {
+            prefix.append("_total");
+        }
+        Set<String> labelNames = new HashSet<String>();
+        char separator = '{';
+        for (String tag : tags) {
+            int colon = tag.indexOf(':');
+            String labelName = sanitizeLabelName(colon < 0 ? tag : tag.substring(0, colon));
+            if (labelName.isEmpty() || !labelNames.add(labelName)) {
+                // Prometheus does not accept a label twice
+                continue;
+            }
+            prefix.append(separator).append(labelName).append("=\"");
+            escapeLabelValue(colon < 0 ? "" : tag.substring(colon + 1), prefix);
+            prefix.append('"');
+            separator = ',';
+        }
+        if (separator == ',') {
+            prefix.append('}');
+        }
+        return prefix.append(' ').toString().getBytes(StatsdFormat.UTF_8);
+    }
+
+    static String sanitizeName(String name) {
+        StringBuilder sanitized = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            sanitized.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            boolean valid =
+                    (ch >= 'a' && ch <= 'z')
+                            || (ch >= 'A' && ch <= 'Z')
+                            || (ch >= '0' && ch <= '9')
+                            || ch == '_'
+                            || ch == ':';
+            sanitized.append(valid ? ch : '_');
+        }
+        return sanitized.toString();
+    }
+
+    static String sanitizeLabelName(String name) {
+        if (name.isEmpty()) {
+            return name;
+        }
+        return sanitizeName(name).replace(':', '_');
+    }
+
+    private static void escapeLabelValue(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' || ch == '"') {
+                out.append('\\').append(ch);
+            } else if (ch == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(ch);
+            }
+        }
+    }
+
+    private void update(Series series, double value) {
+        if ("monotonic_count".equals(series.type)) {
+            values.add(series.slot, value, System.currentTimeMillis());
+        } else {
+            values.set(series.slot, value, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    protected void sendMetricPoint(MetricDescriptor metric, double value) {
+        Series series =
+                getSeries(
+                        metric.getSeriesKey(),
+                        metric.getName(),
+                        metric.getType(),
+                        metric.getTags());
+        update(series, value);
+    }
+
+    protected void sendMetricPoint(
+            String metricType, String metricName, double value, String[] tags) {
+        update(
+                getSeries(
+                        MetricDescriptor.seriesKey(metricName, tags), metricName, metricType, tags),
+                value);
+    }
+
+    /** Exposes the service check as a gauge of its status: 0 for OK up to 3 for unknown. */
+    public void doSendServiceCheck(String checkName, String status, String message, String[] tags) {
+        int value = 3;
+        if (status == Status.STATUS_OK) {
+            value = 0;
+        } else if (status == Status.STATUS_WARNING) {
+            value = 1;
+        } else if (status == Status.STATUS_ERROR) {
+            value = 2;
+        }
+        sendMetricPoint("gauge", checkName + ".can_connect", value, tags);
+    }
+
+    /**
+     * Sets how long a series not sent is still exposed. The unchanged gauges skipped by a gauge
+     * heartbeat are not sent, the window must be longer than the heartbeat.
+     */
+    public void setStaleAfter(long staleAfter) {
+        this.staleAfter = staleAfter;
+    }
+
+    public long getStaleAfter() {
+        return staleAfter;
+    }
+
+    /** Stops serving the metrics. */
+    public void close() {
+        server.stop(0);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /** Returns the port the metrics are served on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void displayMetricReached() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void displayMatchingAttributeName(JmxAttribute jmxAttribute, int rank, int limit) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void displayInstanceName(Instance instance) {
+        throw new UnsupportedOperationException();
+    }
+}
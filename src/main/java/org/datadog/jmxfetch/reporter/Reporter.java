@@ -6,65 +6,137 @@ import org.apache.commons.lang.StringUtils;
 import org.datadog.jmxfetch.App;
 import org.datadog.jmxfetch.Instance;
 import org.datadog.jmxfetch.JmxAttribute;
-
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
-
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the rates and counter deltas of the collected series and submits the points.
+ *
+ * <p>Reporters are thread-safe: the instances may send their metrics concurrently, from their
+ * collection threads. The state of an instance is only locked while its own metrics are sent.
+ * Implementations must accept concurrent calls to `sendMetricPoint`.
+ *
+ * <p>With a gauge heartbeat, a gauge whose value did not change since it was last sent is
+ * skipped, unless it was last sent `gaugeHeartbeat` collections ago.
+ */
 @Slf4j
 public abstract class Reporter {
 
     public static final String VALUE = "value";
 
-    private HashMap<String, Integer> serviceCheckCount;
-    private HashMap<String, HashMap<String, HashMap<String, Object>>> ratesAggregator =
-            new HashMap<String, HashMap<String, HashMap<String, Object>>>();
-    private HashMap<String, HashMap<String, Long>> countersAggregator =
-            new HashMap<String, HashMap<String, Long>>();
-
-    /** Reporter constructor. */
-    public Reporter() {
-        this.serviceCheckCount = new HashMap<String, Integer>();
+    /** The maximum number of gauges whose last sent value is kept, per instance. */
+    static final int MAX_GAUGE_SERIES = 65536;
+
+    private final ConcurrentMap<String, AtomicInteger> serviceCheckCount =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final ConcurrentMap<String, Aggregators> aggregators =
+            new ConcurrentHashMap<String, Aggregators>();
+    private volatile int gaugeHeartbeat;
+
+    /** The series states of an instance, guarded by their monitor. */
+    private static final class Aggregators {
+        private SeriesStates rates = new SeriesStates();
+        private SeriesStates counters = new SeriesStates();
+        // The last sent value of the gauges, and the collection it was sent at
+        private SeriesStates gauges = new SeriesStates();
+        private long collections;
+        private volatile int suppressedCount;
     }
 
-    String generateId(HashMap<String, Object> metric) {
-        String key = (String) metric.get("alias");
-        for (String tag : (String[]) metric.get("tags")) {
-            key += tag;
+    /** Reporter constructor. */
+    public Reporter() {}
+
+    private Aggregators getAggregators(String instanceName) {
+        Aggregators instanceAggregators = aggregators.get(instanceName);
+        if (instanceAggregators == null) {
+            instanceAggregators = new Aggregators();
+            Aggregators previous = aggregators.putIfAbsent(instanceName, instanceAggregators);
+            if (previous != null) {
+                instanceAggregators = previous;
+            }
         }
-        return key;
+        return instanceAggregators;
     }
 
     /** Clears the rate aggregator for the provided instance name. */
     public void clearRatesAggregator(String instanceName) {
-        ratesAggregator.put(instanceName, new HashMap<String, HashMap<String, Object>>());
+        Aggregators instanceAggregators = getAggregators(instanceName);
+        synchronized (instanceAggregators) {
+            instanceAggregators.rates = new SeriesStates();
+        }
     }
 
     /** Clears the counter aggregator for the provided instance name.  */
     public void clearCountersAggregator(String instanceName) {
-        countersAggregator.put(instanceName, new HashMap<String, Long>());
+        Aggregators instanceAggregators = getAggregators(instanceName);
+        synchronized (instanceAggregators) {
+            instanceAggregators.counters = new SeriesStates();
+        }
     }
 
-    /** Submits the metrics in the implementing reporter. */
-    public void sendMetrics(
-            LinkedList<HashMap<String, Object>> metrics,
-            String instanceName,
-            boolean canonicalRate) {
-        HashMap<String, HashMap<String, Object>> instanceRatesAggregator;
-        HashMap<String, Long> instanceCountersAggregator;
-
-        if (ratesAggregator.containsKey(instanceName)) {
-            instanceRatesAggregator = ratesAggregator.get(instanceName);
-        } else {
-            instanceRatesAggregator = new HashMap<String, HashMap<String, Object>>();
+    /** Clears the last sent values of the gauges for the provided instance name. */
+    public void clearGaugesAggregator(String instanceName) {
+        Aggregators instanceAggregators = getAggregators(instanceName);
+        synchronized (instanceAggregators) {
+            instanceAggregators.gauges = new SeriesStates();
         }
+    }
 
-        if (countersAggregator.containsKey(instanceName)) {
-            instanceCountersAggregator = countersAggregator.get(instanceName);
-        } else {
-            instanceCountersAggregator = new HashMap<String, Long>();
+    /**
+     * Sets the number of collections after which an unchanged gauge is sent again, 0 to send the
+     * gauges at every collection.
+     */
+    public void setGaugeHeartbeat(int gaugeHeartbeat) {
+        this.gaugeHeartbeat = gaugeHeartbeat;
+    }
+
+    public int getGaugeHeartbeat() {
+        return gaugeHeartbeat;
+    }
+
+    /** Returns the number of unchanged gauges skipped when the instance last sent its metrics. */
+    public int getSuppressedCount(String instanceName) {
+        Aggregators instanceAggregators = aggregators.get(instanceName);
+        return instanceAggregators == null ? 0 : instanceAggregators.suppressedCount;
+    }
+
+    /** Submits the metrics in the implementing reporter. */
+    public void sendMetrics(MetricBatch metrics, String instanceName, boolean canonicalRate) {
+        Aggregators instanceAggregators = getAggregators(instanceName);
+        synchronized (instanceAggregators) {
+            int heartbeat = gaugeHeartbeat;
+            if (instanceAggregators.gauges.size() > MAX_GAUGE_SERIES) {
+                // Bounds the memory, the gauges are all sent again
+                instanceAggregators.gauges = new SeriesStates();
+            }
+            instanceAggregators.suppressedCount =
+                    sendMetrics(
+                            metrics,
+                            instanceName,
+                            canonicalRate,
+                            instanceAggregators.rates,
+                            instanceAggregators.counters,
+                            heartbeat > 0 ? instanceAggregators.gauges : null,
+                            heartbeat,
+                            instanceAggregators.collections++);
         }
+        flush();
+    }
 
+    /** Sends the metrics, returns the number of unchanged gauges skipped. */
+    private int sendMetrics(
+            MetricBatch metrics,
+            String instanceName,
+            boolean canonicalRate,
+            SeriesStates instanceRatesAggregator,
+            SeriesStates instanceCountersAggregator,
+            SeriesStates instanceGaugesAggregator,
+            int heartbeat,
+            long collection) {
         int loopCounter = App.getLoopCounter();
 
         String sendingMessage =
@@ -83,79 +155,103 @@ public abstract class Reporter {
             log.debug(sendingMessage);
         }
 
-        for (HashMap<String, Object> m : metrics) {
-            // We need to edit metrics for legacy reasons (rename metrics, etc)
-            HashMap<String, Object> metric = new HashMap<String, Object>(m);
-
-            Double currentValue = (Double) metric.get(VALUE);
-            if (currentValue.isNaN() || currentValue.isInfinite()) {
+        int suppressed = 0;
+        for (int i = 0; i < metrics.size(); i++) {
+            double currentValue = metrics.getValue(i);
+            if (Double.isNaN(currentValue) || Double.isInfinite(currentValue)) {
                 continue;
             }
 
-            String metricName = (String) metric.get("alias");
-            String metricType = (String) metric.get("metric_type");
-            String[] tags = Arrays.asList((String[]) metric.get("tags")).toArray(new String[0]);
+            MetricDescriptor metric = metrics.getDescriptor(i);
+            String metricType = metric.getType();
 
             // StatsD doesn't support rate metrics so we need to have our own aggregator to compute
             // rates
             if ("gauge".equals(metricType) || "histogram".equals(metricType)) {
-                sendMetricPoint(metricType, metricName, currentValue, tags);
-            } else if ("monotonic_count".equals(metricType)) {
-                String key = generateId(metric);
-                if (!instanceCountersAggregator.containsKey(key)) {
-                    instanceCountersAggregator.put(key,  currentValue.longValue());
+                if (instanceGaugesAggregator != null
+                        && "gauge".equals(metricType)
+                        && isUnchanged(
+                                instanceGaugesAggregator,
+                                metric,
+                                currentValue,
+                                heartbeat,
+                                collection)) {
+                    suppressed++;
                     continue;
                 }
-
-                long oldValue = instanceCountersAggregator.get(key);
-                long delta = currentValue.longValue() - oldValue;
-
-                if (Double.isNaN(delta) || Double.isInfinite(delta)) {
+                sendMetricPoint(metric, currentValue);
+            } else if ("monotonic_count".equals(metricType)) {
+                int slot =
+                        instanceCountersAggregator.slotOf(
+                                metric.getSeriesHash(), metric.getSeriesKey());
+                if (slot < 0) {
+                    instanceCountersAggregator.set(~slot, 0, (long) currentValue);
                     continue;
                 }
 
-                instanceCountersAggregator.put(key, currentValue.longValue());
+                long oldValue = (long) instanceCountersAggregator.getValue(slot);
+                long delta = (long) currentValue - oldValue;
+                instanceCountersAggregator.set(slot, 0, (long) currentValue);
 
                 if (delta < 0) {
-                    log.info("Counter " + metricName + " has been reset - not submitting.");
+                    log.info("Counter " + metric.getName() + " has been reset - not submitting.");
                     continue;
                 }
-                sendMetricPoint(metricType, metricName, delta, tags);
+                sendMetricPoint(metric, delta);
 
             } else { // The metric should be 'counter'
-                String key = generateId(metric);
-                if (!instanceRatesAggregator.containsKey(key)) {
-                    HashMap<String, Object> rateInfo = new HashMap<String, Object>();
-                    rateInfo.put("ts", System.currentTimeMillis());
-                    rateInfo.put(VALUE, currentValue);
-                    instanceRatesAggregator.put(key, rateInfo);
+                // Read times, not reporting times, so that the collection of the other
+                // instances does not skew the rate
+                long now = metrics.getReadTime(i);
+                int slot =
+                        instanceRatesAggregator.slotOf(
+                                metric.getSeriesHash(), metric.getSeriesKey());
+                if (slot < 0) {
+                    instanceRatesAggregator.set(~slot, now, currentValue);
                     continue;
                 }
 
-                long oldTs = (Long) instanceRatesAggregator.get(key).get("ts");
-                double oldValue = (Double) instanceRatesAggregator.get(key).get(VALUE);
-
-                long now = System.currentTimeMillis();
-                double rate = 1000 * (currentValue - oldValue) / (now - oldTs);
+                long oldTs = instanceRatesAggregator.getTimestamp(slot);
+                double oldValue = instanceRatesAggregator.getValue(slot);
+                double rate = 1e9 * (currentValue - oldValue) / (now - oldTs);
 
                 boolean sane = (!Double.isNaN(rate) && !Double.isInfinite(rate));
                 boolean submit = (rate >= 0 || !canonicalRate);
 
                 if (sane && submit) {
-                    sendMetricPoint(metricType, metricName, rate, tags);
+                    sendMetricPoint(metric, rate);
                 } else if (sane) {
                     log.info(
                             "Canonical rate option set, and negative rate (counter reset)"
                                     + "not submitting.");
                 }
 
-                instanceRatesAggregator.get(key).put("ts", now);
-                instanceRatesAggregator.get(key).put(VALUE, currentValue);
+                instanceRatesAggregator.set(slot, now, currentValue);
             }
         }
+        return suppressed;
+    }
 
-        ratesAggregator.put(instanceName, instanceRatesAggregator);
-        countersAggregator.put(instanceName, instanceCountersAggregator);
+    /**
+     * Returns whether the gauge has the value it was last sent with, less than `heartbeat`
+     * collections ago. Otherwise it is to be sent, and is recorded as such.
+     */
+    private static boolean isUnchanged(
+            SeriesStates gauges,
+            MetricDescriptor metric,
+            double value,
+            int heartbeat,
+            long collection) {
+        int slot = gauges.slotOf(metric.getSeriesHash(), metric.getSeriesKey());
+        if (slot < 0) {
+            gauges.set(~slot, collection, value);
+            return false;
+        }
+        if (gauges.getValue(slot) == value && collection - gauges.getTimestamp(slot) < heartbeat) {
+            return true;
+        }
+        gauges.set(slot, collection, value);
+        return false;
     }
 
     /** Submits service check. */
@@ -164,25 +260,29 @@ public abstract class Reporter {
         String dataName = Reporter.formatServiceCheckPrefix(checkName);
 
         this.doSendServiceCheck(dataName, status, message, tags);
+        flush();
     }
 
     /** Increments the service check count - for book-keeping purposes. */
     public void incrementServiceCheckCount(String checkName) {
-        int scCount = this.getServiceCheckCount(checkName);
-        this.getServiceCheckCountMap().put(checkName, new Integer(scCount + 1));
+        AtomicInteger scCount = serviceCheckCount.get(checkName);
+        if (scCount == null) {
+            scCount = new AtomicInteger();
+            AtomicInteger previous = serviceCheckCount.putIfAbsent(checkName, scCount);
+            if (previous != null) {
+                scCount = previous;
+            }
+        }
+        scCount.incrementAndGet();
     }
 
     public int getServiceCheckCount(String checkName) {
-        Integer scCount = this.serviceCheckCount.get(checkName);
-        return (scCount == null) ? 0 : scCount.intValue();
+        AtomicInteger scCount = this.serviceCheckCount.get(checkName);
+        return (scCount == null) ? 0 : scCount.get();
     }
 
     public void resetServiceCheckCount(String checkName) {
-        this.serviceCheckCount.put(checkName, new Integer(0));
-    }
-
-    protected HashMap<String, Integer> getServiceCheckCountMap() {
-        return this.serviceCheckCount;
+        this.serviceCheckCount.remove(checkName);
     }
 
     /** Formats the service check prefix. */
@@ -192,6 +292,14 @@ public abstract class Reporter {
         return StringUtils.join(chunks, ".");
     }
 
+    /** Sends the points buffered by the implementing reporter, if any. */
+    protected void flush() {}
+
+    /** Submits a point of the series, to be overridden to use the rendered series. */
+    protected void sendMetricPoint(MetricDescriptor metric, double value) {
+        sendMetricPoint(metric.getType(), metric.getName(), value, metric.getTags());
+    }
+
     protected abstract void sendMetricPoint(
             String metricType, String metricName, double value, String[] tags);
 
@@ -6,15 +6,38 @@ import java.util.Arrays;
 
 public class ReporterFactory {
 
-    /** Gets the reporter for the correspndonding type string (console, statsd). */
+    private static final String UNIX_SOCKET_PREFIX = "statsd:unix://";
+    private static final String PROMETHEUS_PREFIX = "prometheus:";
+
+    /**
+     * Gets the reporter for the correspndonding type string (console, statsd, prometheus), or a
+     * reporter sending to each of the comma-separated types.
+     */
     public static Reporter getReporter(String type) {
         if (type == null || type.length() <= 0) {
             throw new IllegalArgumentException("Null or empty reporter type");
         }
+        if (type.indexOf(',') >= 0) {
+            FanoutReporter fanout = new FanoutReporter(FanoutReporter.DEFAULT_CAPACITY);
+            for (String sinkType : type.split(",")) {
+                Reporter sink = getReporter(sinkType);
+                // The console and json outputs are meant to be complete
+                boolean complete = sink instanceof ConsoleReporter || sink instanceof JsonReporter;
+                fanout.addSink(
+                        sinkType,
+                        sink,
+                        complete
+                                ? FanoutReporter.OverflowPolicy.BLOCK
+                                : FanoutReporter.OverflowPolicy.DROP);
+            }
+            return fanout;
+        }
         if ("console".equals(type)) {
             return new ConsoleReporter();
         } else if ("json".equals(type)) {
             return new JsonReporter();
+        } else if (type.startsWith(UNIX_SOCKET_PREFIX)) {
+            return StatsdReporter.unixSocket(type.substring(UNIX_SOCKET_PREFIX.length()));
         } else if (type.startsWith("statsd:")) {
             String[] typeElements = type.split(":");
             String host = "localhost";
@@ -25,6 +48,13 @@ public class ReporterFactory {
                                 .join(Arrays.copyOfRange(typeElements, 1, typeElements.length - 1));
             }
             return new StatsdReporter(host, port);
+        } else if (type.startsWith(PROMETHEUS_PREFIX)) {
+            String address = type.substring(PROMETHEUS_PREFIX.length());
+            int separator = address.lastIndexOf(':');
+            // Serve on all the interfaces unless a host is given
+            String host = separator < 0 ? "0.0.0.0" : address.substring(0, separator);
+            int port = Integer.parseInt(address.substring(separator + 1));
+            return new PrometheusReporter(host, port);
         } else {
             throw new IllegalArgumentException("Invalid reporter type: " + type);
         }
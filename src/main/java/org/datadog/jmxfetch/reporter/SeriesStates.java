@@ -0,0 +1,95 @@
+package org.datadog.jmxfetch.reporter;
+
+/**
+ * The last point of the series of an instance, used to compute rates and counter deltas: a
+ * timestamp and a value per series, in an open addressing table keyed by the 64-bit hash of the
+ * series.
+ *
+ * <p>Two series with the same hash get distinct slots, their series keys are compared on lookup.
+ */
+final class SeriesStates {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private String[] seriesKeys = new String[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the slot of the series. If the series had no slot, one is added for it and its
+     * complement is returned: the point of the series must then be set.
+     */
+    int slotOf(long hash, String seriesKey) {
+        int mask = hashes.length - 1;
+        int slot = mix(hash) & mask;
+        while (seriesKeys[slot] != null) {
+            if (hashes[slot] == hash
+                    && (seriesKeys[slot] == seriesKey || seriesKeys[slot].equals(seriesKey))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (2 * (size + 1) > hashes.length) {
+            grow();
+            return slotOf(hash, seriesKey);
+        }
+        hashes[slot] = hash;
+        seriesKeys[slot] = seriesKey;
+        size++;
+        return ~slot;
+    }
+
+    long getTimestamp(int slot) {
+        return timestamps[slot];
+    }
+
+    double getValue(int slot) {
+        return values[slot];
+    }
+
+    void set(int slot, long timestamp, double value) {
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        String[] oldSeriesKeys = seriesKeys;
+        long[] oldTimestamps = timestamps;
+        double[] oldValues = values;
+
+        int capacity = oldHashes.length * 2;
+        hashes = new long[capacity];
+        seriesKeys = new String[capacity];
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldSeriesKeys[i] == null) {
+                continue;
+            }
+            int slot = mix(oldHashes[i]) & mask;
+            while (seriesKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = oldHashes[i];
+            seriesKeys[slot] = oldSeriesKeys[i];
+            timestamps[slot] = oldTimestamps[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /** Spreads the bits of the hash over the low bits used to index the table. */
+    private static int mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+}
@@ -0,0 +1,129 @@
+package org.datadog.jmxfetch.reporter;
+
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+
+/**
+ * Renders the DogStatsD lines: `name:value|type|#tag1,tag2`.
+ *
+ * <p>The constant parts of the line of a series are rendered once into bytes, the value is then
+ * written between them without allocating.
+ */
+public final class StatsdFormat {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The maximum length of a formatted value. */
+    static final int MAX_VALUE_LENGTH = 350;
+
+    private static final byte[] NAN = "NaN".getBytes(UTF_8);
+    // The infinity sign, as formatted by the client
+    private static final byte[] INFINITY = "∞".getBytes(UTF_8);
+    private static final int FRACTION_DIGITS = 6;
+    private static final long FRACTION_SCALE = 1000000L;
+
+    /** Returns the bytes preceding the value in the lines of a series: `name:`. */
+    public static byte[] metricPrefix(String name) {
+        return (name + ":").getBytes(UTF_8);
+    }
+
+    /** Returns the bytes following the value in the lines of a series: `|type|#tags`. */
+    public static byte[] metricSuffix(String metricType, String[] tags) {
+        StringBuilder suffix = new StringBuilder("|").append(statsdType(metricType));
+        String separator = "|#";
+        for (String tag : tags) {
+            suffix.append(separator).append(tag);
+            separator = ",";
+        }
+        return suffix.toString().getBytes(UTF_8);
+    }
+
+    /** Returns whether the values of the metric type are sent as integers. */
+    static boolean isIntegral(String metricType) {
+        return "monotonic_count".equals(metricType);
+    }
+
+    private static String statsdType(String metricType) {
+        if ("monotonic_count".equals(metricType)) {
+            return "c";
+        } else if ("histogram".equals(metricType)) {
+            return "h";
+        }
+        return "g";
+    }
+
+    /**
+     * Writes the value with at most 6 fraction digits and no grouping, like the DogStatsD client,
+     * returns the offset following it. Unlike the client, the digits of large values are not cut
+     * at the shortest representation of the double.
+     */
+    static int formatDouble(double value, byte[] dest, int offset) {
+        if (Double.isNaN(value)) {
+            System.arraycopy(NAN, 0, dest, offset, NAN.length);
+            return offset + NAN.length;
+        }
+        if (Double.isInfinite(value)) {
+            if (value < 0) {
+                dest[offset++] = '-';
+            }
+            System.arraycopy(INFINITY, 0, dest, offset, INFINITY.length);
+            return offset + INFINITY.length;
+        }
+        double abs = Math.abs(value);
+        if (abs >= Long.MAX_VALUE) {
+            // Integral values beyond the long range, rare enough to allocate
+            byte[] digits = BigDecimal.valueOf(value).toPlainString().getBytes(UTF_8);
+            System.arraycopy(digits, 0, dest, offset, digits.length);
+            return offset + digits.length;
+        }
+
+        long whole = (long) abs;
+        long fraction = Math.round((abs - whole) * FRACTION_SCALE);
+        if (fraction == FRACTION_SCALE) {
+            whole++;
+            fraction = 0;
+        }
+        if (value < 0 && (whole != 0 || fraction != 0)) {
+            dest[offset++] = '-';
+        }
+        offset = formatLong(whole, dest, offset);
+        if (fraction == 0) {
+            return offset;
+        }
+
+        dest[offset++] = '.';
+        int digits = FRACTION_DIGITS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return offset + digits;
+    }
+
+    /** Writes the decimal digits of the value, returns the offset following them. */
+    static int formatLong(long value, byte[] dest, int offset) {
+        if (value == Long.MIN_VALUE) {
+            byte[] digits = Long.toString(value).getBytes(UTF_8);
+            System.arraycopy(digits, 0, dest, offset, digits.length);
+            return offset + digits.length;
+        }
+        if (value < 0) {
+            dest[offset++] = '-';
+            value = -value;
+        }
+        int length = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        for (int i = offset + length - 1; i >= offset; i--) {
+            dest[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + length;
+    }
+
+    private StatsdFormat() {}
+}
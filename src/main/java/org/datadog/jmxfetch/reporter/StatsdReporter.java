@@ -1,90 +1,193 @@
 package org.datadog.jmxfetch.reporter;
 
-import com.timgroup.statsd.NonBlockingStatsDClient;
-import com.timgroup.statsd.ServiceCheck;
-import com.timgroup.statsd.StatsDClient;
-import com.timgroup.statsd.StatsDClientErrorHandler;
 import lombok.extern.slf4j.Slf4j;
 import org.datadog.jmxfetch.Instance;
 import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricDescriptor;
 import org.datadog.jmxfetch.Status;
 
+import java.io.File;
+import java.io.IOException;
+
 /** A reporter class to submit metrics via statsd. */
 @Slf4j
 public class StatsdReporter extends Reporter {
 
-    private StatsDClient statsDClient;
+    private static final String ENTITY_ID_TAG = "dd.internal.entity_id:";
+
+    private final StatsdSender sender;
+    private final String entityTag;
+    // The entity tag following the tags of a line, if any
+    private final byte[] entityTail;
+    private final byte[] untaggedEntityTail;
     private String statsdHost;
     private int statsdPort;
-    private long initializationTime;
+    private String socketPath;
 
-    private class LoggingErrorHandler implements StatsDClientErrorHandler {
+    /** Constructor, instantiates statsd reported to provided host and port. */
+    public StatsdReporter(String statsdHost, int statsdPort) {
+        this(statsdHost, statsdPort, StatsdSender.DEFAULT_MAX_PACKET_SIZE);
+    }
 
-        @Override
-        public void handle(Exception exception) {
-            log.error("statsd client error:", exception);
-        }
+    /** Constructor, packing the metrics in datagrams of up to `maxPacketSize` bytes. */
+    public StatsdReporter(String statsdHost, int statsdPort, int maxPacketSize) {
+        this(statsdHost, statsdPort, null, maxPacketSize);
     }
 
-    /** Constructor, instantiates statsd reported to provided host and port. */
-    public StatsdReporter(String statsdHost, int statsdPort) {
+    private StatsdReporter(
+            String statsdHost, int statsdPort, String socketPath, int maxPacketSize) {
         this.statsdHost = statsdHost;
         this.statsdPort = statsdPort;
-        this.init();
+        this.socketPath = socketPath;
+        String entityId = System.getenv("DD_ENTITY_ID");
+        this.entityTag = entityId == null || entityId.isEmpty() ? null : ENTITY_ID_TAG + entityId;
+        this.entityTail = entityTag == null ? null : ("," + entityTag).getBytes(StatsdFormat.UTF_8);
+        this.untaggedEntityTail =
+                entityTag == null ? null : ("|#" + entityTag).getBytes(StatsdFormat.UTF_8);
+        try {
+            this.sender =
+                    socketPath == null
+                            ? StatsdSender.udp(statsdHost, statsdPort, maxPacketSize)
+                            : StatsdSender.unixSocket(socketPath, maxPacketSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start StatsD client", e);
+        }
+    }
+
+    /** Returns a reporter sending datagrams to the Unix socket at the given path. */
+    public static StatsdReporter unixSocket(String socketPath) {
+        return new StatsdReporter(
+                null, 0, socketPath, StatsdSender.DEFAULT_UNIX_SOCKET_MAX_PACKET_SIZE);
     }
 
-    private void init() {
-        initializationTime = System.currentTimeMillis();
-        statsDClient =
-                new NonBlockingStatsDClient(
-                        null,
-                        this.statsdHost,
-                        this.statsdPort,
-                        new String[] {},
-                        new LoggingErrorHandler());
+    @Override
+    protected void sendMetricPoint(MetricDescriptor metric, double value) {
+        sender.send(
+                metric.getStatsdPrefix(),
+                value,
+                StatsdFormat.isIntegral(metric.getType()),
+                metric.getStatsdSuffix(),
+                metric.getTags().length == 0 ? untaggedEntityTail : entityTail);
     }
 
     protected void sendMetricPoint(
             String metricType, String metricName, double value, String[] tags) {
-        if (System.currentTimeMillis() - this.initializationTime > 300 * 1000) {
-            this.statsDClient.stop();
-            init();
+        sender.send(
+                StatsdFormat.metricPrefix(metricName),
+                value,
+                StatsdFormat.isIntegral(metricType),
+                StatsdFormat.metricSuffix(metricType, tags),
+                tags.length == 0 ? untaggedEntityTail : entityTail);
+    }
+
+    private void appendTags(StringBuilder line, String[] tags) {
+        String separator = "|#";
+        for (String tag : tags) {
+            line.append(separator).append(tag);
+            separator = ",";
         }
-        if (metricType.equals("monotonic_count")) {
-            statsDClient.count(metricName, (long) value, tags);
-        } else if (metricType.equals("histogram")) {
-            statsDClient.histogram(metricName, value, tags);
-        } else {
-            statsDClient.gauge(metricName, value, tags);
+        if (entityTag != null) {
+            line.append(separator).append(entityTag);
         }
     }
 
-    private ServiceCheck.Status statusToServiceCheckStatus(String status) {
+    private int statusToServiceCheckStatus(String status) {
         if (status == Status.STATUS_OK) {
-            return ServiceCheck.Status.OK;
+            return 0;
         } else if (status == Status.STATUS_WARNING) {
-            return ServiceCheck.Status.WARNING;
+            return 1;
         } else if (status == Status.STATUS_ERROR) {
-            return ServiceCheck.Status.CRITICAL;
+            return 2;
         }
-        return ServiceCheck.Status.UNKNOWN;
+        return 3;
     }
 
     /** Submits service check. */
     public void doSendServiceCheck(String checkName, String status, String message, String[] tags) {
-        if (System.currentTimeMillis() - this.initializationTime > 300 * 1000) {
-            this.statsDClient.stop();
-            init();
+        StringBuilder line =
+                new StringBuilder("_sc|")
+                        .append(checkName)
+                        .append(".can_connect|")
+                        .append(statusToServiceCheckStatus(status));
+        appendTags(line, tags);
+        if (message != null) {
+            line.append("|m:").append(message.replace("\n", "\\n").replace("m:", "m\\:"));
         }
+        sender.send(line.toString());
+    }
 
-        ServiceCheck sc = ServiceCheck.builder()
-                .withName(String.format("%s.can_connect", checkName))
-                .withStatus(this.statusToServiceCheckStatus(status))
-                .withMessage(message)
-                .withTags(tags)
-                .build();
+    @Override
+    protected void flush() {
+        sender.flush();
+    }
 
-        statsDClient.serviceCheck(sc);
+    /** Sets the maximum size of the datagrams sent. */
+    public void setMaxPacketSize(int maxPacketSize) {
+        sender.setMaxPacketSize(maxPacketSize);
+    }
+
+    public int getMaxPacketSize() {
+        return sender.getMaxPacketSize();
+    }
+
+    /**
+     * Sets whether sends block while the socket buffer is full. Otherwise, the default, the
+     * datagrams that do not fit are dropped.
+     */
+    public void setBlocking(boolean blocking) {
+        try {
+            sender.setBlocking(blocking);
+        } catch (IOException e) {
+            log.warn("Unable to configure the StatsD channel", e);
+        }
+    }
+
+    public boolean isBlocking() {
+        return sender.isBlocking();
+    }
+
+    /**
+     * Spools the datagrams that can not be sent in the given directory, up to `maxSize` bytes, to
+     * replay them once StatsD accepts them again.
+     */
+    public void setSpool(File directory, long maxSize) {
+        try {
+            sender.setSpool(
+                    new StatsdSpool(
+                            directory,
+                            maxSize,
+                            (int) Math.min(maxSize, StatsdSpool.DEFAULT_SEGMENT_SIZE)));
+        } catch (IOException e) {
+            log.warn("Unable to open the StatsD spool in " + directory, e);
+        }
+    }
+
+    /** Returns the number of bytes spooled and not replayed yet. */
+    public long getSpooledBytes() {
+        return sender.getSpooledBytes();
+    }
+
+    /** Returns the number of spooled bytes sent. */
+    public long getReplayedBytes() {
+        return sender.getReplayedBytes();
+    }
+
+    /** Returns the number of datagrams sent. */
+    public long getDatagramCount() {
+        return sender.getDatagrams();
+    }
+
+    /** Returns the number of bytes sent. */
+    public long getSentBytes() {
+        return sender.getSentBytes();
+    }
+
+    /**
+     * Returns the number of bytes dropped, as the socket buffer was full or the send failed, and
+     * the datagram was not spooled.
+     */
+    public long getDroppedBytes() {
+        return sender.getDroppedBytes();
     }
 
     public void displayMetricReached() {
@@ -111,4 +214,9 @@ public class StatsdReporter extends Reporter {
     public int getStatsdPort() {
         return statsdPort;
     }
+
+    /** Returns the path of the Unix socket the datagrams are sent to, null over UDP. */
+    public String getSocketPath() {
+        return socketPath;
+    }
 }
@@ -0,0 +1,332 @@
+package org.datadog.jmxfetch.reporter;
+
+import jnr.unixsocket.UnixDatagramChannel;
+import jnr.unixsocket.UnixSocketAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.logging.log4j.Level;
+import org.datadog.jmxfetch.util.CustomLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends StatsD lines over a single long-lived datagram channel, UDP or Unix socket, packing as
+ * many newline-separated lines in each datagram as the maximum packet size allows.
+ *
+ * <p>The lines are buffered until the next one does not fit or `flush` is called. The address of
+ * a UDP host is resolved again every 5 minutes and after a failed send, the channel is kept. While
+ * the host can not be resolved, the datagrams are dropped.
+ *
+ * <p>Sends do not block by default: a datagram that does not fit in the socket buffer is dropped.
+ * The sent and dropped bytes are counted.
+ *
+ * <p>The points are written in place into a reused direct buffer, from the rendered lines of
+ * their series, and the buffer is sent as is.
+ *
+ * <p>With a spool, the datagrams that could not be sent are spooled rather than dropped, and
+ * replayed at up to 256KB per second once a datagram is sent again. A UDP channel is then
+ * connected, for the sends to fail while no server listens.
+ */
+@Slf4j
+class StatsdSender {
+    static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+    static final int DEFAULT_UNIX_SOCKET_MAX_PACKET_SIZE = 8192;
+
+    private static final long RESOLVE_INTERVAL = TimeUnit.MINUTES.toNanos(5);
+    private static final long RETRY_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+    private static final double REPLAY_RATE = 256 * 1024;
+
+    private final String host;
+    private final int port;
+    private final DatagramChannel channel;
+    private final byte[] value = new byte[StatsdFormat.MAX_VALUE_LENGTH];
+    private ByteBuffer buffer;
+    private SocketAddress address;
+    private long resolveTime;
+    private boolean resolveNeeded;
+    private long datagrams;
+    private long sentBytes;
+    private long droppedBytes;
+    private StatsdSpool spool;
+    // Whether the last send succeeded
+    private boolean healthy = true;
+    private double replayAllowance;
+    private long replayTime;
+    private long replayedBytes;
+
+    private StatsdSender(
+            String host,
+            int port,
+            SocketAddress address,
+            DatagramChannel channel,
+            int maxPacketSize)
+            throws IOException {
+        this.host = host;
+        this.port = port;
+        this.address = address;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(maxPacketSize);
+        channel.configureBlocking(false);
+        if (address == null) {
+            resolve();
+        }
+    }
+
+    /** Returns a sender to a UDP host. */
+    static StatsdSender udp(String host, int port, int maxPacketSize) throws IOException {
+        return new StatsdSender(host, port, null, DatagramChannel.open(), maxPacketSize);
+    }
+
+    /** Returns a sender to a Unix datagram socket. */
+    static StatsdSender unixSocket(String socketPath, int maxPacketSize) throws IOException {
+        return new StatsdSender(
+                null,
+                0,
+                new UnixSocketAddress(socketPath),
+                UnixDatagramChannel.open(),
+                maxPacketSize);
+    }
+
+    private void resolve() {
+        resolveTime = System.nanoTime();
+        resolveNeeded = false;
+        InetSocketAddress resolved = new InetSocketAddress(host, port);
+        if (resolved.isUnresolved()) {
+            log.warn("Unable to resolve the StatsD host " + host);
+            if (address != null) {
+                // Keep sending to the last known address
+                return;
+            }
+        }
+        address = resolved;
+        connect();
+    }
+
+    /** Connects a spooling UDP channel to the resolved address. */
+    private void connect() {
+        if (host == null || spool == null || isUnresolved()) {
+            return;
+        }
+        try {
+            if (channel.isConnected()) {
+                channel.disconnect();
+            }
+            channel.connect(address);
+        } catch (IOException e) {
+            log.warn("Unable to connect to StatsD " + address, e);
+        }
+    }
+
+    /**
+     * Buffers the line of a point: the rendered prefix of its series, its value, the rendered
+     * suffix of its series and `tail`, if not null.
+     */
+    synchronized void send(
+            byte[] prefix, double pointValue, boolean integral, byte[] suffix, byte[] tail) {
+        int valueLength =
+                integral
+                        ? StatsdFormat.formatLong((long) pointValue, value, 0)
+                        : StatsdFormat.formatDouble(pointValue, value, 0);
+        int length = prefix.length + valueLength + suffix.length;
+        if (tail != null) {
+            length += tail.length;
+        }
+        ByteBuffer line = reserve(length);
+        line.put(prefix).put(value, 0, valueLength).put(suffix);
+        if (tail != null) {
+            line.put(tail);
+        }
+        if (line != buffer) {
+            line.flip();
+            write(line);
+        }
+    }
+
+    /** Buffers a line. */
+    synchronized void send(String line) {
+        byte[] bytes = line.getBytes(StatsdFormat.UTF_8);
+        ByteBuffer target = reserve(bytes.length);
+        target.put(bytes);
+        if (target != buffer) {
+            target.flip();
+            write(target);
+        }
+    }
+
+    /**
+     * Returns the buffer to write a line of the given length into, sending the pending datagram
+     * first if the line does not fit. A line larger than a packet gets its own buffer, to be sent
+     * on its own.
+     */
+    private ByteBuffer reserve(int length) {
+        int needed = buffer.position() == 0 ? length : length + 1;
+        if (needed > buffer.remaining()) {
+            flush();
+        }
+        if (length > buffer.remaining()) {
+            return ByteBuffer.allocate(length);
+        }
+        if (buffer.position() > 0) {
+            buffer.put((byte) '\n');
+        }
+        return buffer;
+    }
+
+    /** Sends the pending datagram, if any, then replays the spooled ones while sends succeed. */
+    synchronized void flush() {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+        if (spool != null && healthy) {
+            replay();
+        }
+    }
+
+    private void write(ByteBuffer datagram) {
+        int start = datagram.position();
+        int length = datagram.remaining();
+        if (trySend(datagram)) {
+            return;
+        }
+        if (spool != null) {
+            datagram.position(start);
+            try {
+                spool.append(datagram, System.currentTimeMillis() / 1000, buffer.capacity());
+                return;
+            } catch (IOException e) {
+                CustomLogger.laconic(
+                        log, Level.WARN, "Unable to spool the StatsD datagrams: " + e, 0);
+            }
+        }
+        droppedBytes += length;
+    }
+
+    /** Sends the datagram, returns whether it was. */
+    private boolean trySend(ByteBuffer datagram) {
+        int length = datagram.remaining();
+        healthy = false;
+        if (host != null) {
+            long interval = isUnresolved() ? RETRY_INTERVAL : RESOLVE_INTERVAL;
+            if (resolveNeeded || System.nanoTime() - resolveTime > interval) {
+                resolve();
+            }
+            if (isUnresolved()) {
+                return false;
+            }
+        }
+        try {
+            int sent;
+            if (channel.isConnected()) {
+                sent = channel.write(datagram);
+            } else {
+                sent = channel.send(datagram, address);
+            }
+            if (sent == 0) {
+                // The socket buffer is full
+                return false;
+            }
+            sentBytes += length;
+            datagrams++;
+            healthy = true;
+            return true;
+        } catch (IOException e) {
+            // A full Unix socket buffer fails to accept the datagram
+            CustomLogger.laconic(
+                    log, Level.WARN, "Unable to send to StatsD " + address + ": " + e, 0);
+            // The host may have moved
+            resolveNeeded = true;
+            return false;
+        }
+    }
+
+    /** Replays the spooled datagrams, as long as they are sent and the replay rate allows. */
+    private void replay() {
+        long now = System.nanoTime();
+        replayAllowance =
+                Math.min(REPLAY_RATE, replayAllowance + (now - replayTime) * REPLAY_RATE / 1e9);
+        replayTime = now;
+        ByteBuffer record;
+        while (replayAllowance > 0 && (record = spool.peek()) != null) {
+            int length = record.remaining();
+            if (!trySend(record)) {
+                return;
+            }
+            spool.advance();
+            replayAllowance -= length;
+            replayedBytes += length;
+        }
+    }
+
+    private boolean isUnresolved() {
+        return ((InetSocketAddress) address).isUnresolved();
+    }
+
+    /** Sets whether sends block while the socket buffer is full, rather than drop the datagram. */
+    synchronized void setBlocking(boolean blocking) throws IOException {
+        channel.configureBlocking(blocking);
+    }
+
+    /** Sets the spool keeping the datagrams that could not be sent, null to drop them. */
+    synchronized void setSpool(StatsdSpool spool) {
+        this.spool = spool;
+        this.replayTime = System.nanoTime();
+        connect();
+    }
+
+    /** Returns the number of bytes spooled and not replayed yet. */
+    synchronized long getSpooledBytes() {
+        return spool == null ? 0 : spool.getPendingBytes();
+    }
+
+    /** Returns the number of spooled bytes sent. */
+    synchronized long getReplayedBytes() {
+        return replayedBytes;
+    }
+
+    synchronized boolean isBlocking() {
+        return channel.isBlocking();
+    }
+
+    /** Sets the maximum size of a datagram, sending the pending one. */
+    synchronized void setMaxPacketSize(int maxPacketSize) {
+        flush();
+        buffer = ByteBuffer.allocateDirect(maxPacketSize);
+    }
+
+    synchronized int getMaxPacketSize() {
+        return buffer.capacity();
+    }
+
+    /** Returns the number of datagrams sent. */
+    synchronized long getDatagrams() {
+        return datagrams;
+    }
+
+    /** Returns the number of bytes sent. */
+    synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Returns the number of bytes dropped, as the socket buffer was full or the send failed, and
+     * the datagram could not be spooled or was dropped from the spool.
+     */
+    synchronized long getDroppedBytes() {
+        return spool == null ? droppedBytes : droppedBytes + spool.getDroppedBytes();
+    }
+
+    synchronized void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close the StatsD channel", e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package org.datadog.jmxfetch.reporter;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the StatsD datagrams that could not be sent, to send them once the server accepts them
+ * again.
+ *
+ * <p>The gauge and count lines of a datagram are appended to memory-mapped segment files, with
+ * the time they were spooled as a DogStatsD timestamp (`|T`), so that their points keep their
+ * time when replayed. The other lines are dropped. Segments are never synced: the spool survives
+ * a restart of the process, not of the host. Once the segments reach the maximum size, the oldest
+ * one is dropped.
+ *
+ * <p>A segment starts with a header, holding the offset of the next record to replay, followed by
+ * length-prefixed records, each to be sent as a datagram, and a zero length. A segment replayed or
+ * dropped is marked as consumed before being deleted: some platforms do not delete a file still
+ * mapped, the segment is then deleted when the spool is opened again. Not thread-safe.
+ */
+@Slf4j
+final class StatsdSpool {
+    static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x4a4d5853;
+    private static final int HEADER_SIZE = 8;
+    // The read offset of a segment no longer needed
+    private static final int CONSUMED = -1;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spool-(\\d+)\\.seg");
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private byte[] record = new byte[8192];
+    private long pendingBytes;
+    private long droppedBytes;
+
+    private static final class Segment {
+        private final File file;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private int readOffset;
+        private int writeOffset;
+
+        private Segment(File file, long sequence, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Opens the spool in the given directory, holding up to `maxSize` bytes in segments of
+     * `segmentSize` bytes. The records left by a previous process are kept, to be replayed.
+     */
+    StatsdSpool(File directory, long maxSize, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxSize / segmentSize);
+
+        List<Long> sequences = new ArrayList<Long>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    sequences.add(Long.valueOf(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(sequences);
+        for (Long sequence : sequences) {
+            Segment segment = open(sequence, false);
+            if (segment != null) {
+                segments.add(segment);
+                pendingBytes += segment.writeOffset - segment.readOffset;
+            }
+        }
+        while (segments.size() > maxSegments) {
+            dropOldest();
+        }
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(directory, "spool-" + sequence + ".seg");
+    }
+
+    /** Maps the segment file, returns null if it is not a valid segment. */
+    private Segment open(long sequence, boolean create) throws IOException {
+        File file = segmentFile(sequence);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        Segment segment;
+        try {
+            if (create) {
+                raf.setLength(segmentSize);
+            }
+            int length = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+            if (length < HEADER_SIZE) {
+                raf.close();
+                file.delete();
+                return null;
+            }
+            if (!create && raf.readInt() == MAGIC && raf.readInt() == CONSUMED) {
+                // Left by a process that could not delete it, not mapped yet
+                raf.close();
+                file.delete();
+                return null;
+            }
+            segment =
+                    new Segment(
+                            file,
+                            sequence,
+                            raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length));
+        } finally {
+            // The mapping outlives the file
+            raf.close();
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        if (create) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, HEADER_SIZE);
+        } else if (buffer.getInt(0) != MAGIC) {
+            log.warn("Ignoring the invalid StatsD spool segment " + file);
+            file.delete();
+            return null;
+        }
+        int offset = HEADER_SIZE;
+        while (offset + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + 4 + length > buffer.capacity()) {
+                break;
+            }
+            offset += 4 + length;
+        }
+        segment.writeOffset = offset;
+        int readOffset = buffer.getInt(4);
+        segment.readOffset =
+                readOffset < HEADER_SIZE || readOffset > offset ? HEADER_SIZE : readOffset;
+        return segment;
+    }
+
+    private void dropOldest() {
+        Segment oldest = segments.removeFirst();
+        long dropped = oldest.writeOffset - oldest.readOffset;
+        pendingBytes -= dropped;
+        droppedBytes += dropped;
+        delete(oldest);
+    }
+
+    private static void delete(Segment segment) {
+        segment.buffer.putInt(4, CONSUMED);
+        if (!segment.file.delete()) {
+            log.debug("Unable to delete the consumed StatsD spool segment " + segment.file);
+        }
+    }
+
+    /**
+     * Spools the gauge and count lines of the datagram, between its position and limit, as
+     * records of up to `maxRecordLength` bytes. The position of the datagram is left unchanged.
+     */
+    void append(ByteBuffer datagram, long timestamp, int maxRecordLength) throws IOException {
+        byte[] suffix = ("|T" + timestamp).getBytes(StatsdFormat.UTF_8);
+        ByteBuffer lines = datagram.duplicate();
+        int end = datagram.limit();
+        int recordLength = 0;
+        int lineStart = datagram.position();
+        for (int i = lineStart; i <= end; i++) {
+            if (i < end && datagram.get(i) != '\n') {
+                continue;
+            }
+            if (hasTimestamp(datagram, lineStart, i)) {
+                int needed = i - lineStart + suffix.length;
+                if (recordLength > 0 && recordLength + 1 + needed > maxRecordLength) {
+                    write(recordLength);
+                    recordLength = 0;
+                }
+                if (recordLength + 1 + needed > record.length) {
+                    byte[] grown = new byte[Math.max(record.length * 2, recordLength + 1 + needed)];
+                    System.arraycopy(record, 0, grown, 0, recordLength);
+                    record = grown;
+                }
+                if (recordLength > 0) {
+                    record[recordLength++] = '\n';
+                }
+                lines.limit(i).position(lineStart);
+                lines.get(record, recordLength, i - lineStart);
+                recordLength += i - lineStart;
+                System.arraycopy(suffix, 0, record, recordLength, suffix.length);
+                recordLength += suffix.length;
+            }
+            lineStart = i + 1;
+        }
+        if (recordLength > 0) {
+            write(recordLength);
+        }
+    }
+
+    /** Returns whether the line is a gauge or count, the types DogStatsD accepts a time for. */
+    private static boolean hasTimestamp(ByteBuffer datagram, int start, int end) {
+        if (end - start < 4 || datagram.get(start) == '_') {
+            // Service checks and events
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (datagram.get(i) == '|') {
+                if (i + 1 == end) {
+                    return false;
+                }
+                byte type = datagram.get(i + 1);
+                return (type == 'g' || type == 'c') && (i + 2 == end || datagram.get(i + 2) == '|');
+            }
+        }
+        return false;
+    }
+
+    private void write(int length) throws IOException {
+        if (HEADER_SIZE + 4 + length > segmentSize) {
+            droppedBytes += length;
+            return;
+        }
+        Segment current = segments.peekLast();
+        if (current == null || current.writeOffset + 4 + length > current.buffer.capacity()) {
+            if (segments.size() == maxSegments) {
+                dropOldest();
+            }
+            current = open(current == null ? 0 : current.sequence + 1, true);
+            segments.addLast(current);
+        }
+        MappedByteBuffer buffer = current.buffer;
+        buffer.position(current.writeOffset + 4);
+        buffer.put(record, 0, length);
+        // The length is written last, it marks the record as complete
+        buffer.putInt(current.writeOffset, length);
+        current.writeOffset += 4 + length;
+        pendingBytes += 4 + length;
+    }
+
+    /** Returns the oldest record not replayed yet, or null if there is none. */
+    ByteBuffer peek() {
+        while (true) {
+            Segment oldest = segments.peekFirst();
+            if (oldest == null) {
+                return null;
+            }
+            if (oldest.readOffset < oldest.writeOffset) {
+                ByteBuffer next = oldest.buffer.duplicate();
+                int length = oldest.buffer.getInt(oldest.readOffset);
+                next.limit(oldest.readOffset + 4 + length).position(oldest.readOffset + 4);
+                // The Unix socket channel sends direct buffers from their start
+                return next.slice();
+            }
+            if (segments.size() == 1) {
+                return null;
+            }
+            // Fully replayed, and no longer written to
+            segments.removeFirst();
+            delete(oldest);
+        }
+    }
+
+    /** Marks the record returned by `peek` as replayed. */
+    void advance() {
+        Segment oldest = segments.peekFirst();
+        int length = oldest.buffer.getInt(oldest.readOffset);
+        oldest.readOffset += 4 + length;
+        oldest.buffer.putInt(4, oldest.readOffset);
+        pendingBytes -= 4 + length;
+    }
+
+    /** Returns the number of bytes spooled and not replayed yet. */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /** Returns the number of bytes dropped as the spool was full. */
+    long getDroppedBytes() {
+        return droppedBytes;
+    }
+}
@@ -80,10 +80,23 @@ public class TaskProcessor {
         return statuses;
     }
 
+    /**
+     * Submits a task to run in the background without waiting for its completion.
+     * */
+    public <T> Future<T> submit(InstanceTask<T> task) {
+        return threadPoolExecutor.submit(task);
+    }
+
     /**
      * Stops the excutor service.
      * */
     public void stop() {
-        threadPoolExecutor.shutdownNow();
+        // Tasks that never started are cancelled so that whoever holds their future knows
+        // they are over
+        for (Runnable pending : threadPoolExecutor.shutdownNow()) {
+            if (pending instanceof Future) {
+                ((Future<?>) pending).cancel(false);
+            }
+        }
     }
 }
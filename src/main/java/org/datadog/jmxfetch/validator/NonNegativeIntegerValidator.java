@@ -0,0 +1,21 @@
+package org.datadog.jmxfetch.validator;
+
+import com.beust.jcommander.IParameterValidator;
+import com.beust.jcommander.ParameterException;
+
+public class NonNegativeIntegerValidator implements IParameterValidator {
+
+    /** Validates whether an integer is positive or zero. */
+    public void validate(String name, String value) throws ParameterException {
+        try {
+            int num = Integer.parseInt(value);
+            if (num < 0) {
+                throw new ParameterException(
+                        "Parameter " + name + " should be non-negative (found " + value + ")");
+            }
+        } catch (NumberFormatException e) {
+            throw new ParameterException(
+                    "Parameter " + name + " should be an integer (found " + value + ")");
+        }
+    }
+}
@@ -6,11 +6,27 @@ import com.beust.jcommander.ParameterException;
 public class ReporterValidator implements IParameterValidator {
 
     private static final String STATSD_PREFIX = "statsd:";
+    private static final String UNIX_SOCKET_PREFIX = "statsd:unix://";
+    private static final String PROMETHEUS_PREFIX = "prometheus:";
     private final PositiveIntegerValidator positiveIntegerValidator =
             new PositiveIntegerValidator();
 
-    /** Validates a reporter configurations (console, statsd). */
+    /** Validates a reporter configurations (console, statsd, prometheus). */
     public void validate(String name, String value) throws ParameterException {
+        if (value.indexOf(',') >= 0) {
+            for (String reporter : value.split(",", -1)) {
+                validate(name, reporter);
+            }
+            return;
+        }
+        if (value.startsWith(UNIX_SOCKET_PREFIX)) {
+            String path = value.substring(UNIX_SOCKET_PREFIX.length());
+            if (!path.startsWith("/")) {
+                throw new ParameterException(
+                        "Statsd socket path should be absolute (found " + path + ")");
+            }
+            return;
+        }
         if (value.startsWith(STATSD_PREFIX) && value.length() > STATSD_PREFIX.length()) {
             String[] splitValue = value.split(":");
             String port = splitValue[splitValue.length - 1];
@@ -22,12 +38,24 @@ public class ReporterValidator implements IParameterValidator {
             }
             return;
         }
+        if (value.startsWith(PROMETHEUS_PREFIX) && value.length() > PROMETHEUS_PREFIX.length()) {
+            String port = value.substring(value.lastIndexOf(':') + 1);
+            try {
+                positiveIntegerValidator.validate(name, port);
+            } catch (ParameterException pe) {
+                throw new ParameterException(
+                        "Prometheus Port should be a positive integer (found " + port + ")");
+            }
+            return;
+        }
         if (!value.equals("console") && !value.equals("json")) {
             throw new ParameterException(
                     "Parameter "
                             + name
-                            + " should be either 'console', 'json', 'statsd:[STATSD_PORT]' "
-                            + "or 'statsd:[STATSD_HOST]:[STATSD_PORT]'");
+                            + " should be either 'console', 'json', 'statsd:[STATSD_PORT]', "
+                            + "'statsd:[STATSD_HOST]:[STATSD_PORT]', "
+                            + "'statsd:unix://[STATSD_SOCKET_PATH]' "
+                            + "or 'prometheus:[[HOST]:]PORT', or a comma-separated list of those");
         }
     }
 }
@@ -0,0 +1,123 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.Test;
+
+public class TestAggregation extends TestCommon {
+
+    @Test
+    public void testParse() {
+        assertNull(Aggregation.parse(null));
+        assertEquals("sum by []", Aggregation.parse("sum").toString());
+
+        LinkedHashMap<String, Object> conf = new LinkedHashMap<String, Object>();
+        conf.put("function", "avg");
+        conf.put("by", Arrays.asList("topic", "type"));
+        Aggregation aggregation = Aggregation.parse(conf);
+        assertEquals(Aggregation.AVG, aggregation.getFunction());
+        assertEquals(new HashSet<String>(Arrays.asList("topic", "type")), aggregation.getBy());
+
+        for (Object invalid : new Object[] {"median", 42}) {
+            try {
+                Aggregation.parse(invalid);
+                fail("Invalid aggregate " + invalid + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("aggregate"));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupTags() {
+        LinkedHashMap<String, Object> conf = new LinkedHashMap<String, Object>();
+        conf.put("function", "max");
+        conf.put("by", "topic");
+        Aggregation aggregation = Aggregation.parse(conf);
+
+        String[] tags = {"instance:kafka", "topic:a", "partition:0", "env:prod", "host:"};
+        List<String> grouped =
+                Arrays.asList(
+                        aggregation.groupTags(
+                                tags, new HashSet<String>(Arrays.asList("instance", "env"))));
+        assertEquals(Arrays.asList("instance:kafka", "topic:a", "env:prod"), grouped);
+    }
+
+    @Test
+    public void testAggregateBatch() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor plain = descriptors.register("plain", "gauge", new String[0]);
+        MetricDescriptor avg =
+                descriptors.register("avg", "gauge", new String[0], Aggregation.parse("avg"));
+        MetricDescriptor min =
+                descriptors.register("min", "gauge", new String[0], Aggregation.parse("min"));
+        assertTrue(descriptors.hasAggregations());
+
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int run = 0; run < 2; run++) {
+            batch.reset(0);
+            batch.add(avg, 1);
+            batch.add(plain, 10);
+            batch.add(min, 5);
+            batch.add(avg, 5);
+            batch.add(plain, 20);
+            batch.add(min, 3);
+            batch.stamp(0, 100);
+            batch.stamp(3, 200);
+            batch.aggregate();
+
+            assertEquals(4, batch.size());
+            assertSame(avg, batch.getDescriptor(0));
+            assertEquals(3.0, batch.getValue(0), 0);
+            assertEquals(200, batch.getReadTime(0));
+            assertSame(plain, batch.getDescriptor(1));
+            assertEquals(10.0, batch.getValue(1), 0);
+            assertSame(min, batch.getDescriptor(2));
+            assertEquals(3.0, batch.getValue(2), 0);
+            assertSame(plain, batch.getDescriptor(3));
+            assertEquals(20.0, batch.getValue(3), 0);
+        }
+    }
+
+    @Test
+    public void testAggregateBeans() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            SimpleTestJavaApp testApp = new SimpleTestJavaApp();
+            testApp.incrementCounter(i);
+            registerMBean(
+                    testApp, "org.datadog.jmxfetch.test:type=SimpleTestJavaApp,name=app" + i);
+        }
+        initApplication("jmx_aggregate.yaml");
+        run();
+
+        // Only the aggregated series are reported, with the `by` and instance tags
+        HashMap<String, List<String>> tags = new HashMap<String, List<String>>();
+        HashMap<String, Double> values = new HashMap<String, Double>();
+        for (HashMap<String, Object> metric : getMetrics()) {
+            String name = (String) metric.get("name");
+            if (name.startsWith("test.aggregated.")) {
+                assertFalse("Reported twice: " + name, values.containsKey(name));
+                values.put(name, (Double) metric.get("value"));
+                tags.put(name, Arrays.asList((String[]) metric.get("tags")));
+            }
+        }
+        assertEquals(300.0, values.get("test.aggregated.sum"), 0);
+        assertEquals(
+                Arrays.asList("instance:jmx_test_instance", "env:test"),
+                tags.get("test.aggregated.sum"));
+        assertEquals(3.0, values.get("test.aggregated.max"), 0);
+        assertEquals(
+                Arrays.asList("instance:jmx_test_instance", "type:SimpleTestJavaApp", "env:test"),
+                tags.get("test.aggregated.max"));
+    }
+}
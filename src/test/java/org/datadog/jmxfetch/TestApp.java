@@ -216,6 +216,55 @@ public class TestApp extends TestCommon {
         assertEquals(29, metrics.size());
     }
 
+    @Test
+    public void testBeanRefreshInBackground() throws Exception {
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.includeme:type=AType");
+        initApplication("jmx_refresh_beans.yaml");
+        Instance instance = getInstances().get(0);
+        assertEquals(-1, instance.getLastRefreshDuration());
+
+        run();
+        // 29 = 13 metrics from java.lang + 16 metrics implicitly defined
+        assertEquals(29, getMetrics().size());
+
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.includeme:type=BType");
+        Thread.sleep(2100);
+
+        // The refresh is due: it is scheduled while this collection uses the previous beans
+        run();
+        assertEquals(29, getMetrics().size());
+
+        // Once done, the new attributes are swapped in
+        for (int i = 0; i < 50 && instance.getLastRefreshDuration() == -1; i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(instance.getLastRefreshDuration() >= 0);
+        run();
+        assertEquals(45, getMetrics().size());
+    }
+
+    @Test
+    public void testMaxReturnedMetricsPriority() throws Exception {
+        SimpleTestJavaApp testApp = new SimpleTestJavaApp();
+        registerMBean(testApp, "org.datadog.jmxfetch.test:type=LowB");
+        registerMBean(testApp, "org.datadog.jmxfetch.test:type=High");
+        registerMBean(testApp, "org.datadog.jmxfetch.test:type=LowA");
+        initApplication("jmx_max_returned_metrics_priority.yaml");
+
+        run();
+        LinkedList<HashMap<String, Object>> metrics = getMetrics();
+
+        // The prioritized rule is kept first, then the first bean in canonical name order. The
+        // default java.lang metrics come last and are dropped.
+        assertEquals(2, metrics.size());
+        assertTrue(getInstances().get(0).isLimitReached());
+        List<String> tags =
+                Arrays.asList("instance:jmx_test_instance", "jmx_domain:org.datadog.jmxfetch.test");
+        assertMetric("high.is.100", 100.0, tags, Arrays.asList("type:High"), 3);
+        assertMetric("low.is.100", 100.0, tags, Arrays.asList("type:LowA"), 3);
+        assertCoverage();
+    }
+
     @Test
     public void testDomainExclude() throws Exception {
         // We expose a few metrics through JMX
@@ -483,6 +532,51 @@ public class TestApp extends TestCommon {
         assertMetric("test1.histogram", 424242, commonTags, 8, "histogram");
     }
 
+    @Test
+    public void testTabularLimit() throws Exception {
+        SimpleTestJavaApp testApp = new SimpleTestJavaApp();
+        testApp.populateTabularData(10);
+        registerMBean(testApp, "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+
+        initApplication("jmx_tabular_limit.yaml");
+        run();
+
+        // `limit: 3` drops the 3 lowest rows, or the 3 highest ones with `sort: asc`
+        List<Double> desc = new ArrayList<Double>();
+        List<Double> asc = new ArrayList<Double>();
+        for (HashMap<String, Object> metric : getMetrics()) {
+            if (!"multiattr.bar".equals(metric.get("name"))) {
+                continue;
+            }
+            List<String> tags = Arrays.asList((String[]) metric.get("tags"));
+            Double value = (Double) metric.get("value");
+            assertTrue(tags.contains("foo:" + value.intValue()));
+            if (tags.contains("instance:jmx_test_instance_desc")) {
+                desc.add(value);
+            } else {
+                asc.add(value);
+            }
+        }
+        Collections.sort(desc);
+        Collections.sort(asc);
+        assertEquals(Arrays.asList(4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0), desc);
+        assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0), asc);
+
+        // The limit applies to the rows found by the bean refresh
+        testApp.populateTabularData(4);
+        for (Instance instance : getInstances()) {
+            instance.refreshBeans();
+        }
+        run();
+        int count = 0;
+        for (HashMap<String, Object> metric : getMetrics()) {
+            if ("multiattr.bar".equals(metric.get("name"))) {
+                count++;
+            }
+        }
+        assertEquals(2, count);
+    }
+
     /** FIXME: Split this test in multiple sub-tests. */
     @Test
     public void testApp() throws Exception {
@@ -564,6 +658,10 @@ public class TestApp extends TestCommon {
         testApp.incrementCounter(5);
         testApp.incrementHashMapCounter(5);
         testApp.populateTabularData(2);
+        // New tabular rows are discovered by the bean refresh, wait for it instead of racing it
+        for (Instance instance : getInstances()) {
+            instance.refreshBeans();
+        }
 
         run();
         metrics = getMetrics();
@@ -690,6 +788,10 @@ public class TestApp extends TestCommon {
         testApp.incrementCounter(5);
         testApp.incrementHashMapCounter(5);
         testApp.populateTabularData(2);
+        // New tabular rows are discovered by the bean refresh, wait for it instead of racing it
+        for (Instance instance : getInstances()) {
+            instance.refreshBeans();
+        }
 
         run();
         metrics = getMetrics();
@@ -0,0 +1,71 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+public class TestBeanContext {
+
+    @Test
+    public void testBeanParameters() throws Exception {
+        BeanContext context =
+                new BeanContext(
+                        new ObjectName("some.domain:type=Foo,name=\"some.bean.0.0.0.0:80,a=b\""),
+                        "jmx",
+                        null,
+                        false);
+
+        assertEquals("some.domain", context.getDomain());
+        Map<String, String> parameters = context.getBeanParameters();
+        assertEquals(2, parameters.size());
+        assertEquals("Foo", parameters.get("type"));
+        assertEquals("\"some.bean.0.0.0.0:80,a=b\"", parameters.get("name"));
+    }
+
+    @Test
+    public void testDefaultTags() throws Exception {
+        LinkedHashMap<String, String> instanceTags = new LinkedHashMap<String, String>();
+        instanceTags.put("env", "prod");
+        instanceTags.put("standalone", null);
+        BeanContext context =
+                new BeanContext(
+                        new ObjectName("org.apache.cassandra.metrics:type=Table,scope=t,name=N,"
+                                + "host=h|1,empty=\"\""),
+                        "cassandra",
+                        instanceTags,
+                        true);
+
+        List<String> tags = context.getDefaultTags(false);
+        assertEquals(
+                new HashSet<String>(
+                        Arrays.asList(
+                                "instance:cassandra",
+                                "jmx_domain:org.apache.cassandra.metrics",
+                                "type:Table",
+                                "scope:t",
+                                "name:N",
+                                "bean_host:h1",
+                                "empty:\"\"",
+                                "env:prod",
+                                "standalone",
+                                "host:")),
+                new HashSet<String>(tags));
+        assertEquals("host:", tags.get(tags.size() - 1));
+        assertSame(tags, context.getDefaultTags(false));
+
+        // Cassandra aliasing moves the scope to a tag named after the type, the name being in
+        // the alias
+        List<String> cassandraTags = context.getDefaultTags(true);
+        assertTrue(cassandraTags.contains("Table:t"));
+        assertFalse(cassandraTags.contains("name:N"));
+    }
+}
@@ -0,0 +1,104 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+public class TestBeanRegex {
+
+    private static void assertLiterals(String regex, String... expected) {
+        assertArrayEquals(regex, expected, BeanRegex.getRequiredLiterals(regex));
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        assertLiterals(
+                "org.apache.cassandra.db:type=Caches", "org", "apache", "cassandra", "db:type=Caches");
+        assertLiterals(
+                "^java\\.lang:type=GarbageCollector,name=(.*)$",
+                "java.lang:type=GarbageCollector,name=");
+        assertLiterals(
+                "kafka\\.server:type=(Fetch|Produce),name=\\w+Bytes",
+                "kafka.server:type=",
+                ",name=",
+                "Bytes");
+        assertLiterals("domain:type=Caches?,name=x*y+", "domain:type=Cache", ",name=", "y");
+        assertLiterals("domain:type=a{0,2}b{2}", "domain:type=", "b");
+        assertLiterals("domain:[a-z]+,\\p{Lower}\\d{2}foo", "domain:", ",", "foo");
+        assertLiterals("domain:type=[]a](?:bar)baz", "domain:type=", "baz");
+        // Not supported constructs, no prefilter
+        assertLiterals("domain:type=foo|other:type=bar");
+        assertLiterals("(?i)domain:type=foo");
+        assertLiterals("domain:type=\\Qfoo\\E");
+        assertLiterals("domain:type=(?!foo)bar");
+    }
+
+    @Test
+    public void testMatchesLikePattern() throws Exception {
+        List<String> regexes =
+                Arrays.asList(
+                        "org.datadog.jmxfetch.test:type=(.*)",
+                        "^org\\.datadog\\.jmxfetch\\.test:type=Simple(Test)?JavaApp$",
+                        "org.datadog.jmxfetch.test:(type|foo)=Simple+TestJavaApp",
+                        "org.datadog.jmxfetch.te*st:type=SimpleTestJavaApps?",
+                        "[a-z.]+:type=\\w{0,3}SimpleTestJavaApp",
+                        "java.lang:type=GarbageCollector,name=(.*)");
+        List<String> beans =
+                Arrays.asList(
+                        "org.datadog.jmxfetch.test:type=SimpleTestJavaApp",
+                        "org.datadog.jmxfetch.tst:type=SimpleTestJavaApp",
+                        "org.datadog.jmxfetch.test:foo=SimpleeTestJavaApp",
+                        "org.datadog.jmxfetch.test:type=SimpleJavaApp",
+                        "java.lang:type=GarbageCollector,name=G1 Old Generation",
+                        "java.lang:type=Memory");
+
+        for (String regex : regexes) {
+            BeanRegex beanRegex = new BeanRegex(regex);
+            Pattern pattern = Pattern.compile(regex);
+            for (String bean : beans) {
+                Matcher matcher = pattern.matcher(bean);
+                String[] groups = beanRegex.match(bean);
+                if (!matcher.matches()) {
+                    assertNull(regex + " / " + bean, groups);
+                    continue;
+                }
+                assertNotNull(regex + " / " + bean, groups);
+                assertEquals(matcher.groupCount() + 1, groups.length);
+                for (int i = 0; i < groups.length; i++) {
+                    assertEquals(matcher.group(i), groups[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBeanContextCachesMatches() throws Exception {
+        HashMap<String, Object> conf = new HashMap<String, Object>();
+        conf.put("bean_regex", "java.lang:type=GarbageCollector,name=(.*)");
+        Filter filter = new Filter(conf);
+
+        BeanContext context =
+                new BeanContext(
+                        new ObjectName("java.lang:type=GarbageCollector,name=Copy"),
+                        "jmx",
+                        null,
+                        false);
+        String[] groups = context.matchBeanRegexes(filter);
+        assertArrayEquals(
+                new String[] {"java.lang:type=GarbageCollector,name=Copy", "Copy"}, groups);
+        assertEquals(groups, context.matchBeanRegexes(filter));
+
+        context = new BeanContext(new ObjectName("java.lang:type=Memory"), "jmx", null, false);
+        assertNull(context.matchBeanRegexes(filter));
+        assertNull(context.matchBeanRegexes(filter));
+    }
+}
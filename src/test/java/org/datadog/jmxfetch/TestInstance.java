@@ -2,6 +2,9 @@ package org.datadog.jmxfetch;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
@@ -11,11 +14,14 @@ import com.google.common.collect.Lists;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.datadog.jmxfetch.reporter.ConsoleReporter;
 import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
 
 public class TestInstance extends TestCommon {
     private static final Logger log = LogManager.getLogger("Test Instance");
@@ -99,4 +105,268 @@ public class TestInstance extends TestCommon {
 
         assertEquals(2, configurationList.size());
     }
+
+    @SuppressWarnings("unchecked")
+    private static LinkedHashMap<String, Object> instanceMap(String name, String domain) {
+        return (LinkedHashMap<String, Object>) new Yaml().load(
+                "name: " + name + "\n"
+                + "host: localhost\n"
+                + "port: 9999\n"
+                + "conf:\n"
+                + "  - include:\n"
+                + "      domain: " + domain + "\n");
+    }
+
+    @Test
+    public void testSharedConfigurations() throws Exception {
+        AppConfig config = AppConfig.builder().build();
+        Instance first = new Instance(instanceMap("first", "org.foo"), null, "jmx", config);
+        Instance second = new Instance(instanceMap("second", "org.foo"), null, "jmx", config);
+        Instance other = new Instance(instanceMap("other", "org.bar"), null, "jmx", config);
+
+        // Identical configurations are interned
+        assertSame(first.getConfigurationList(), second.getConfigurationList());
+        assertNotSame(first.getConfigurationList(), other.getConfigurationList());
+
+        // Default configurations are parsed only once
+        List<Configuration> firstConfs = first.getConfigurationList();
+        List<Configuration> otherConfs = other.getConfigurationList();
+        assertEquals(firstConfs.size(), otherConfs.size());
+        for (int i = 1; i < firstConfs.size(); i++) {
+            assertSame(firstConfs.get(i), otherConfs.get(i));
+        }
+
+        // Recovered instances reuse the configurations of the broken ones
+        assertSame(first.getConfigurationList(), new Instance(first, config).getConfigurationList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInstanceConfig() throws Exception {
+        AppConfig appConfig = AppConfig.builder().build();
+        LinkedHashMap<String, Object> instanceMap =
+                (LinkedHashMap<String, Object>) new Yaml().load(
+                        "host: localhost\n"
+                        + "port: 9999\n"
+                        + "user: admin\n"
+                        + "empty_default_hostname: true\n"
+                        + "tags:\n"
+                        + "  env: stage\n"
+                        + "conf:\n"
+                        + "  - include:\n"
+                        + "      domain: org.foo\n");
+        LinkedHashMap<String, Object> initConfig =
+                (LinkedHashMap<String, Object>) new Yaml().load(
+                        "canonical_rate: true\nmin_collection_interval: 30\n");
+        InstanceConfig config = new InstanceConfig(instanceMap, initConfig, "jmx", appConfig);
+
+        assertEquals("jmx-localhost-9999", config.getName());
+        assertEquals("localhost:9999", config.toString());
+        assertEquals(
+                Arrays.asList("jmx_server:localhost", "env:stage", "instance:jmx-localhost-9999",
+                        "host:"),
+                Arrays.asList(config.getServiceCheckTags()));
+        assertTrue(config.isCanonicalRate());
+        assertTrue(config.isEmptyDefaultHostname());
+        assertEquals(Integer.valueOf(30), config.getMinCollectionPeriod());
+        assertEquals(350, config.getMaxReturnedMetrics());
+        assertEquals(1, config.getConfigurations().size());
+        // Only the connection parameters are retained
+        assertEquals(
+                Arrays.asList("host", "port", "user"),
+                Lists.newArrayList(config.getConnectionParams().keySet()));
+
+        instanceMap.put("refresh_beans", "10");
+        try {
+            new InstanceConfig(instanceMap, initConfig, "jmx", appConfig);
+            fail("Invalid refresh_beans should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("refresh_beans"));
+        }
+    }
+
+    @Test
+    public void testMetricDescriptors() throws Exception {
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+        initApplication("jmx_alias_match.yaml");
+        Instance instance = getInstances().get(0);
+        MetricDescriptors descriptors = instance.getMetricDescriptors();
+
+        HashMap<String, MetricDescriptor> bySeries = new HashMap<String, MetricDescriptor>();
+        MetricBatch batch = instance.getMetrics();
+        assertTrue(batch.size() > 0);
+        for (HashMap<String, Object> metric : batch.toMaps()) {
+            MetricDescriptor descriptor = (MetricDescriptor) metric.get("descriptor");
+            assertEquals(metric.get("alias"), descriptor.getName());
+            assertEquals(metric.get("metric_type"), descriptor.getType());
+            assertEquals(instance.getCheckName(), metric.get("check_name"));
+            assertSame(metric.get("tags"), descriptor.getTags());
+            assertEquals(
+                    MetricDescriptor.seriesKey(descriptor.getName(), descriptor.getTags()),
+                    descriptor.getSeriesKey());
+            assertSame(descriptor, descriptors.get(descriptor.getId()));
+            bySeries.put(descriptor.getSeriesKey(), descriptor);
+        }
+        // Aliases depending on the value are resolved when collected
+        boolean valueAlias = false;
+        for (MetricDescriptor descriptor : bySeries.values()) {
+            valueAlias |= descriptor.getName().equals("this.is.thousand.1000.0");
+        }
+        assertTrue(valueAlias);
+
+        // Series keep their descriptors across bean refreshes
+        int registered = descriptors.size();
+        instance.refreshBeans();
+        instance.recycle(batch);
+        assertSame(batch, instance.getMetrics());
+        for (int i = 0; i < batch.size(); i++) {
+            MetricDescriptor descriptor = batch.getDescriptor(i);
+            assertSame(bySeries.get(descriptor.getSeriesKey()), descriptor);
+        }
+        assertEquals(registered, descriptors.size());
+    }
+
+    @Test
+    public void testRecycleCollectedBatches() throws Exception {
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+        initApplication("jmx_alias_match.yaml");
+        Instance instance = getInstances().get(0);
+
+        MetricBatch batch = instance.getMetrics();
+        instance.recycle(batch);
+        // The empty batch of a skipped run does not replace the one to reuse
+        MetricBatch empty = instance.getEmptyMetrics();
+        assertSame(empty, instance.getEmptyMetrics());
+        instance.recycle(empty);
+        assertSame(batch, instance.getMetrics());
+        assertEquals(0, empty.size());
+    }
+
+    private static int indexOfAlias(MetricBatch batch, String prefix) {
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.getDescriptor(i).getName().startsWith(prefix)) {
+                return i;
+            }
+        }
+        fail("No " + prefix + " metric");
+        return -1;
+    }
+
+    @Test
+    public void testValueAlias() throws Exception {
+        SimpleTestJavaApp testApp = new SimpleTestJavaApp();
+        registerMBean(testApp, "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+        initApplication("jmx_value_alias.yaml");
+        Instance instance = getInstances().get(0);
+
+        MetricBatch batch = instance.getMetrics();
+        MetricDescriptor descriptor = batch.getDescriptor(indexOfAlias(batch, "counter.is."));
+        assertEquals("counter.is.0", descriptor.getName());
+        instance.recycle(batch);
+
+        // The alias is resolved again only when the value changes
+        batch = instance.getMetrics();
+        assertSame(descriptor, batch.getDescriptor(indexOfAlias(batch, "counter.is.")));
+        instance.recycle(batch);
+
+        testApp.incrementCounter(5);
+        batch = instance.getMetrics();
+        int index = indexOfAlias(batch, "counter.is.");
+        assertEquals("counter.is.5", batch.getDescriptor(index).getName());
+        assertEquals(5.0, batch.getValue(index), 0);
+        instance.recycle(batch);
+
+        // The series of the previous values are pruned once the refreshed attributes are collected
+        MetricDescriptors descriptors = instance.getMetricDescriptors();
+        int registered = descriptors.count();
+        instance.refreshBeans();
+        batch = instance.getMetrics();
+        assertEquals(registered - 1, descriptors.count());
+        assertNull(descriptors.get(descriptor.getId()));
+        index = indexOfAlias(batch, "counter.is.");
+        assertEquals("counter.is.5", batch.getDescriptor(index).getName());
+    }
+
+    @Test
+    public void testPruneDescriptors() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor kept = descriptors.register("kept", "gauge", new String[0]);
+        MetricDescriptor removed = descriptors.register("removed", "gauge", new String[0]);
+
+        int generation = descriptors.beginRefresh();
+        assertSame(kept, descriptors.register("kept", "gauge", new String[0]));
+        // Registered by a later refresh
+        descriptors.beginRefresh();
+        MetricDescriptor added = descriptors.register("added", "gauge", new String[0]);
+        descriptors.prune(generation);
+
+        assertEquals(2, descriptors.count());
+        assertSame(kept, descriptors.get(kept.getId()));
+        assertSame(added, descriptors.get(added.getId()));
+        assertNull(descriptors.get(removed.getId()));
+
+        // The identifiers are reused, the survivors keep theirs
+        MetricDescriptor reused = descriptors.register("reused", "gauge", new String[0]);
+        assertEquals(removed.getId(), reused.getId());
+        assertEquals(3, descriptors.size());
+        assertNotSame(removed, descriptors.register("removed", "gauge", new String[0]));
+    }
+
+    @Test
+    public void testMetricBatch() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        batch.reset(42L);
+        for (int i = 0; i < 200; i++) {
+            batch.add(descriptors.register("metric." + i, "gauge", new String[0]), i);
+        }
+        assertEquals(200, batch.size());
+        assertEquals(42L, batch.getTimestamp());
+        assertEquals("metric.150", batch.getDescriptor(150).getName());
+        assertEquals(150.0, batch.getValue(150), 0);
+
+        batch.truncate(100);
+        assertEquals(100, batch.size());
+        batch.reset(43L);
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.toMaps().size());
+    }
+
+    @Test
+    public void testReadTimes() throws Exception {
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+        initApplication("jmx_alias_match.yaml");
+        Instance instance = getInstances().get(0);
+
+        long before = System.nanoTime();
+        MetricBatch batch = instance.getMetrics();
+        long after = System.nanoTime();
+        assertTrue(batch.size() > 0);
+        for (int i = 0; i < batch.size(); i++) {
+            assertTrue(batch.getReadTime(i) >= before && batch.getReadTime(i) <= after);
+        }
+    }
+
+    @Test
+    public void testRateFromReadTimes() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor counter = descriptors.register("test.rate", "counter", new String[0]);
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        ConsoleReporter reporter = new ConsoleReporter();
+
+        batch.reset(System.currentTimeMillis());
+        batch.add(counter, 10);
+        batch.stamp(0, 1000000000L);
+        reporter.sendMetrics(batch, "jmx", false);
+
+        // Rates only depend on the read times of the values, not on when they are reported
+        batch.reset(System.currentTimeMillis());
+        batch.add(counter, 30);
+        batch.stamp(0, 3000000000L);
+        reporter.sendMetrics(batch, "jmx", false);
+
+        LinkedList<HashMap<String, Object>> metrics = reporter.getMetrics();
+        assertEquals(1, metrics.size());
+        assertEquals(10.0, (Double) metrics.get(0).get("value"), 0);
+    }
 }
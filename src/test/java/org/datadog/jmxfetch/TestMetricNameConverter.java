@@ -0,0 +1,80 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestMetricNameConverter {
+    private static final String ALPHABET = "aBcZyx09_.-:$ \t\n\r,=/\"'*?é";
+
+    private static void assertSameAsRegexes(String alias) {
+        String expected = MetricNameConverter.convertWithRegexes(alias);
+        String scanned = MetricNameConverter.scan(alias);
+        if (scanned != null) {
+            assertEquals("[" + alias + "]", expected, scanned);
+        }
+        assertEquals("[" + alias + "]", expected, MetricNameConverter.convert(alias));
+    }
+
+    @Test
+    public void testConversions() {
+        assertEquals(
+                "jmx.org.datadog.jmxfetch.test.should_be100",
+                MetricNameConverter.convert("jmx.org.datadog.jmxfetch.test.ShouldBe100"));
+        assertEquals("_abc", MetricNameConverter.convert("12 abc"));
+        assertEquals("_1abc", MetricNameConverter.convert("-1abc"));
+        assertEquals("a.b", MetricNameConverter.convert("a__.__b"));
+        assertEquals("http_request.count", MetricNameConverter.convert("HTTPRequest.Count"));
+        assertNull(MetricNameConverter.scan("métrique"));
+    }
+
+    @Test
+    public void testSameAsRegexes() {
+        List<String> aliases =
+                Arrays.asList(
+                        "",
+                        "a",
+                        "A",
+                        "_",
+                        ".",
+                        "..",
+                        "._.",
+                        "-.abc",
+                        "a_._._b",
+                        "aBcDe",
+                        "ABcDe",
+                        "ABCdef",
+                        "AbCd",
+                        "a1B",
+                        "\nAb",
+                        "x\nAbc",
+                        "x\rAbc",
+                        "kafka.server.BrokerTopicMetrics.BytesInPerSec.OneMinuteRate",
+                        "jmx.java.lang.G1 Old Generation.CollectionCount",
+                        "cassandra.ReadLatency.99thPercentile",
+                        "this.is.thousand.1000.0",
+                        "jvm.gc.cms.count",
+                        "  trailing spaces  ",
+                        "$foo.$bar");
+        for (String alias : aliases) {
+            assertSameAsRegexes(alias);
+        }
+    }
+
+    @Test
+    public void testSameAsRegexesOnRandomAliases() {
+        Random random = new Random(42);
+        char[] alias = new char[24];
+        for (int i = 0; i < 200000; i++) {
+            int length = random.nextInt(alias.length + 1);
+            for (int j = 0; j < length; j++) {
+                alias[j] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            }
+            assertSameAsRegexes(new String(alias, 0, length));
+        }
+    }
+}
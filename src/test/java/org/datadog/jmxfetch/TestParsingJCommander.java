@@ -2,15 +2,22 @@ package org.datadog.jmxfetch;
 
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import com.google.common.base.Joiner;
+import java.io.File;
+import java.net.ServerSocket;
 import java.util.Arrays;
 import java.util.List;
 import org.datadog.jmxfetch.reporter.ConsoleReporter;
+import org.datadog.jmxfetch.reporter.FanoutReporter;
+import org.datadog.jmxfetch.reporter.JsonReporter;
+import org.datadog.jmxfetch.reporter.PrometheusReporter;
 import org.datadog.jmxfetch.reporter.StatsdReporter;
 import org.datadog.jmxfetch.validator.Log4JLevelValidator;
 import org.junit.Test;
@@ -129,7 +136,7 @@ public class TestParsingJCommander {
     }
 
     @Test
-    public void testParsingReporter() {
+    public void testParsingReporter() throws Exception {
         // console reporter
         String[] params =
                 new String[] {
@@ -150,6 +157,12 @@ public class TestParsingJCommander {
                 new String[] {
                     "--reporter",
                     "statsd:10",
+                    "--statsd_max_packet_size",
+                    "8192",
+                    "--statsd_spool_directory",
+                    "/var/spool/jmxfetch",
+                    "--statsd_spool_max_size",
+                    "16",
                     "--check",
                     SINGLE_CHECK,
                     "--conf_directory",
@@ -161,6 +174,9 @@ public class TestParsingJCommander {
         assertTrue(appConfig.getReporter() instanceof StatsdReporter);
         assertEquals("localhost", ((StatsdReporter) appConfig.getReporter()).getStatsdHost());
         assertEquals(10, ((StatsdReporter) appConfig.getReporter()).getStatsdPort());
+        assertEquals(8192, appConfig.getStatsdMaxPacketSize());
+        assertEquals("/var/spool/jmxfetch", appConfig.getStatsdSpoolDirectory());
+        assertEquals(16, appConfig.getStatsdSpoolMaxSize());
 
         // statsd reporter with custom ipv4 host
         params =
@@ -178,6 +194,10 @@ public class TestParsingJCommander {
         assertTrue(appConfig.getReporter() instanceof StatsdReporter);
         assertEquals("127.0.0.1", ((StatsdReporter) appConfig.getReporter()).getStatsdHost());
         assertEquals(10, ((StatsdReporter) appConfig.getReporter()).getStatsdPort());
+        assertEquals(0, appConfig.getStatsdMaxPacketSize());
+        assertFalse(appConfig.isStatsdBlocking());
+        assertNull(appConfig.getStatsdSpoolDirectory());
+        assertEquals(64, appConfig.getStatsdSpoolMaxSize());
 
         // statsd reporter with custom ipv6 host
         params =
@@ -196,6 +216,25 @@ public class TestParsingJCommander {
         assertEquals("[::1]", ((StatsdReporter) appConfig.getReporter()).getStatsdHost());
         assertEquals(10, ((StatsdReporter) appConfig.getReporter()).getStatsdPort());
 
+        // statsd reporter over a unix socket
+        params =
+                new String[] {
+                    "--reporter",
+                    "statsd:unix:///var/run/datadog/dsd.socket",
+                    "--statsd_blocking",
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    AppConfig.ACTION_COLLECT
+                };
+        appConfig = testCommand(params);
+        assertTrue(appConfig.getReporter() instanceof StatsdReporter);
+        assertEquals(
+                "/var/run/datadog/dsd.socket",
+                ((StatsdReporter) appConfig.getReporter()).getSocketPath());
+        assertTrue(appConfig.isStatsdBlocking());
+
         // invalid reporter
         params =
                 new String[] {
@@ -212,7 +251,7 @@ public class TestParsingJCommander {
             fail("Should have failed because reporter is invalid");
         } catch (ParameterException pe) {
             assertEquals(
-                    "Parameter --reporter should be either 'console', 'json', 'statsd:[STATSD_PORT]' or 'statsd:[STATSD_HOST]:[STATSD_PORT]'",
+                    "Parameter --reporter should be either 'console', 'json', 'statsd:[STATSD_PORT]', 'statsd:[STATSD_HOST]:[STATSD_PORT]', 'statsd:unix://[STATSD_SOCKET_PATH]' or 'prometheus:[[HOST]:]PORT', or a comma-separated list of those",
                     pe.getMessage());
         }
 
@@ -233,6 +272,93 @@ public class TestParsingJCommander {
         } catch (ParameterException pe) {
             assertEquals("Statsd Port should be a positive integer (found -1)", pe.getMessage());
         }
+
+        // relative socket path
+        params =
+                new String[] {
+                    "-r",
+                    "statsd:unix://dsd.socket",
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    AppConfig.ACTION_COLLECT
+                };
+        try {
+            testCommand(params);
+            fail("Should have failed because statsd socket path is relative");
+        } catch (ParameterException pe) {
+            assertEquals(
+                    "Statsd socket path should be absolute (found dsd.socket)", pe.getMessage());
+        }
+
+        // several reporters
+        params =
+                new String[] {
+                    "--reporter",
+                    "statsd:10,json",
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    AppConfig.ACTION_COLLECT
+                };
+        appConfig = testCommand(params);
+        assertTrue(appConfig.getReporter() instanceof FanoutReporter);
+        FanoutReporter.Sink[] sinks = ((FanoutReporter) appConfig.getReporter()).getSinks();
+        assertEquals(2, sinks.length);
+        assertTrue(sinks[0].getReporter() instanceof StatsdReporter);
+        assertEquals(FanoutReporter.OverflowPolicy.DROP, sinks[0].getPolicy());
+        assertTrue(sinks[1].getReporter() instanceof JsonReporter);
+        assertEquals(FanoutReporter.OverflowPolicy.BLOCK, sinks[1].getPolicy());
+        ((FanoutReporter) appConfig.getReporter()).close();
+
+        // several statsd reporters spool into their own directories
+        File spool = File.createTempFile("spool", "");
+        spool.delete();
+        params =
+                new String[] {
+                    "--reporter",
+                    "statsd:10,statsd:11",
+                    "--statsd_spool_directory",
+                    spool.getPath(),
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    AppConfig.ACTION_COLLECT
+                };
+        appConfig = testCommand(params);
+        new App(appConfig);
+        ((FanoutReporter) appConfig.getReporter()).close();
+        File[] spools = spool.listFiles();
+        Arrays.sort(spools);
+        assertEquals(
+                Arrays.asList(new File(spool, "statsd_10"), new File(spool, "statsd_11")),
+                Arrays.asList(spools));
+        for (File directory : spools) {
+            directory.delete();
+        }
+        spool.delete();
+
+        // invalid prometheus port
+        params =
+                new String[] {
+                    "-r",
+                    "prometheus:localhost:http",
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    AppConfig.ACTION_COLLECT
+                };
+        try {
+            testCommand(params);
+            fail("Should have failed because prometheus reporter port is invalid");
+        } catch (ParameterException pe) {
+            assertEquals(
+                    "Prometheus Port should be a positive integer (found http)", pe.getMessage());
+        }
     }
 
     @Test
@@ -331,6 +457,68 @@ public class TestParsingJCommander {
         }
     }
 
+    @Test
+    public void testParsingGaugeHeartbeat() throws Exception {
+        String[] params =
+                new String[] {
+                    "--reporter",
+                    REPORTER_CONSOLE,
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    "--gauge_heartbeat",
+                    "0",
+                    AppConfig.ACTION_COLLECT
+                };
+        AppConfig appConfig = testCommand(params);
+        assertEquals(0, appConfig.getGaugeHeartbeat());
+
+        // negative heartbeat
+        params =
+                new String[] {
+                    "--reporter",
+                    REPORTER_CONSOLE,
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    "--gauge_heartbeat",
+                    "-1",
+                    AppConfig.ACTION_COLLECT
+                };
+        try {
+            testCommand(params);
+            fail("Should have failed because gauge heartbeat is negative");
+        } catch (ParameterException pe) {
+            assertEquals(
+                    "Parameter --gauge_heartbeat should be non-negative (found -1)",
+                    pe.getMessage());
+        }
+
+        // the prometheus series outlive the heartbeat
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        params =
+                new String[] {
+                    "--reporter",
+                    "prometheus:127.0.0.1:" + port,
+                    "--check",
+                    SINGLE_CHECK,
+                    "--conf_directory",
+                    CONF_DIR,
+                    "--gauge_heartbeat",
+                    "100",
+                    AppConfig.ACTION_COLLECT
+                };
+        appConfig = testCommand(params);
+        new App(appConfig);
+        PrometheusReporter reporter = (PrometheusReporter) appConfig.getReporter();
+        reporter.close();
+        assertEquals(2 * 100 * 15000L, reporter.getStaleAfter());
+    }
+
     @Test
     public void testParsingStatus() {
         String[] params =
@@ -0,0 +1,51 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Test;
+
+public class TestTagPool extends TestCommon {
+
+    @Test
+    public void testInternTags() {
+        List<String> tags = Arrays.asList("instance:jmx", new String("type:Foo"), "env:prod");
+        String[] pooled = TagPool.internTags(tags);
+        assertArrayEquals(tags.toArray(), pooled);
+
+        // Equal tag sets share a single array, and single tags are shared across tag sets
+        String[] same = TagPool.internTags(new LinkedList<String>(tags));
+        assertSame(pooled, same);
+        String[] other = TagPool.internTags(Arrays.asList(new String("type:Foo"), "env:prod"));
+        assertNotSame(pooled, other);
+        assertSame(pooled[1], other[0]);
+
+        // Order matters
+        assertNotSame(
+                pooled, TagPool.internTags(Arrays.asList("env:prod", "type:Foo", "instance:jmx")));
+    }
+
+    @Test
+    public void testAttributesShareTags() throws Exception {
+        registerMBean(new SimpleTestJavaApp(), "org.datadog.jmxfetch.test:type=SimpleTestJavaApp");
+        initApplication("jmx.yaml");
+        run();
+
+        // Attributes of a bean with the same tags share the same array
+        HashMap<List<String>, String[]> tagSets = new HashMap<List<String>, String[]>();
+        for (HashMap<String, Object> metric : getMetrics()) {
+            String[] tags = (String[]) metric.get("tags");
+            String[] seen = tagSets.get(Arrays.asList(tags));
+            if (seen == null) {
+                tagSets.put(Arrays.asList(tags), tags);
+            } else {
+                assertSame(seen, tags);
+            }
+        }
+    }
+}
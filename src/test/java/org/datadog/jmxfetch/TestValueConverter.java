@@ -0,0 +1,87 @@
+package org.datadog.jmxfetch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class TestValueConverter {
+
+    private static void assertNotANumber(ValueConverter converter, Object value) {
+        try {
+            converter.toDouble(value);
+            fail("Converted " + value);
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConversions() {
+        for (String type : new String[] {"long", "java.lang.String", "boolean", null}) {
+            ValueConverter converter = ValueConverter.forType(type, null);
+            assertEquals(42.0, converter.toDouble(42), 0);
+            assertEquals(42.0, converter.toDouble(42L), 0);
+            assertEquals(4.5, converter.toDouble(4.5f), 0);
+            assertEquals(42.0, converter.toDouble(new AtomicInteger(42)), 0);
+            assertEquals(42.0, converter.toDouble(new AtomicLong(42)), 0);
+            assertEquals(1.0, converter.toDouble(true), 0);
+            assertEquals(0.0, converter.toDouble(false), 0);
+            assertEquals(4.2, converter.toDouble("4.2"), 0);
+            assertNotANumber(converter, null);
+            assertNotANumber(converter, new Object());
+        }
+    }
+
+    @Test
+    public void testConversionTable() {
+        LinkedHashMap<Object, Object> conversions = new LinkedHashMap<Object, Object>();
+        conversions.put("ShouldBe0", 0);
+        conversions.put("ShouldBe5", "5");
+        conversions.put("Broken", "five");
+        ValueConverter converter = ValueConverter.forType("java.lang.String", conversions);
+        assertEquals(0.0, converter.toDouble("ShouldBe0"), 0);
+        assertEquals(5.0, converter.toDouble("ShouldBe5"), 0);
+        assertNotANumber(converter, "Broken");
+        assertNotANumber(converter, "Unknown");
+
+        conversions.put("default", 1);
+        converter = ValueConverter.forType("java.lang.String", conversions);
+        assertEquals(1.0, converter.toDouble("Unknown"), 0);
+    }
+
+    @Test
+    public void testNoAllocation() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        LinkedHashMap<Object, Object> conversions = new LinkedHashMap<Object, Object>();
+        conversions.put("ShouldBe5", 5);
+        ValueConverter table = ValueConverter.forType("java.lang.String", conversions);
+        ValueConverter numbers = ValueConverter.forType("long", null);
+        Object[] values = {42L, 42, 4.2, new AtomicLong(42), true};
+
+        long threadId = Thread.currentThread().getId();
+        double sum = 0;
+        long allocated = 0;
+        for (int run = 0; run < 3; run++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 1000000; i++) {
+                sum += numbers.toDouble(values[i % values.length]);
+                sum += table.toDouble("ShouldBe5");
+            }
+            allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        }
+        assertTrue(sum > 0);
+        // A single allocated Double per conversion would account for megabytes
+        assertTrue("Allocated " + allocated + " bytes", allocated < 100000);
+    }
+}
@@ -0,0 +1,214 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.datadog.jmxfetch.Status;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestFanoutReporter {
+    private FanoutReporter fanout;
+
+    /** Records the points sent, optionally waiting for a latch before the first one. */
+    private static class RecordingReporter extends Reporter {
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch latch;
+
+        RecordingReporter(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected void sendMetricPoint(
+                String metricType, String metricName, double value, String[] tags) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(metricName + ":" + (long) value);
+        }
+
+        @Override
+        protected void doSendServiceCheck(
+                String checkName, String status, String message, String[] tags) {
+            sent.add(checkName + ":" + status);
+        }
+
+        @Override
+        public void displayMetricReached() {}
+
+        @Override
+        public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {}
+
+        @Override
+        public void displayInstanceName(Instance instance) {}
+
+        @Override
+        public void displayMatchingAttributeName(
+                JmxAttribute jmxAttribute, int rank, int limit) {}
+    }
+
+    @After
+    public void tearDown() {
+        if (fanout != null) {
+            fanout.close();
+        }
+    }
+
+    private static void awaitCaughtUp(FanoutReporter.Sink sink) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sink.getLag() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, sink.getLag());
+    }
+
+    @Test
+    public void testFanout() throws Exception {
+        fanout = new FanoutReporter(1024);
+        RecordingReporter first = new RecordingReporter(new CountDownLatch(0));
+        RecordingReporter second = new RecordingReporter(new CountDownLatch(0));
+        FanoutReporter.Sink firstSink =
+                fanout.addSink("first", first, FanoutReporter.OverflowPolicy.BLOCK);
+        FanoutReporter.Sink secondSink =
+                fanout.addSink("second", second, FanoutReporter.OverflowPolicy.DROP);
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor gauge = descriptors.register("gauge", "gauge", new String[0]);
+        MetricDescriptor count = descriptors.register("count", "monotonic_count", new String[0]);
+        for (int collection = 0; collection < 3; collection++) {
+            MetricBatch batch = new MetricBatch(descriptors, "jmx");
+            batch.add(gauge, collection);
+            batch.add(count, 10 * collection);
+            fanout.sendMetrics(batch, "jmx", false);
+        }
+        fanout.sendServiceCheck("jmx", Status.STATUS_OK, null, new String[0]);
+
+        awaitCaughtUp(firstSink);
+        awaitCaughtUp(secondSink);
+        // The deltas are computed once, before the fan-out
+        List<String> expected =
+                Arrays.asList(
+                        "gauge:0", "gauge:1", "count:10", "gauge:2", "count:10", "jmx:OK");
+        assertEquals(expected, first.sent);
+        assertEquals(expected, second.sent);
+        assertEquals(5, firstSink.getSent());
+        assertEquals(0, secondSink.getDropped());
+        assertEquals(1, fanout.getServiceCheckCount("jmx"));
+    }
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+        fanout = new FanoutReporter(8);
+        CountDownLatch stalled = new CountDownLatch(1);
+        RecordingReporter slow = new RecordingReporter(stalled);
+        RecordingReporter fast = new RecordingReporter(new CountDownLatch(0));
+        FanoutReporter.Sink slowSink =
+                fanout.addSink("slow", slow, FanoutReporter.OverflowPolicy.DROP);
+        FanoutReporter.Sink fastSink =
+                fanout.addSink("fast", fast, FanoutReporter.OverflowPolicy.BLOCK);
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < 100; i++) {
+            batch.add(descriptors.register("gauge", "gauge", new String[] {"bean:" + i}), i);
+        }
+        // The stalled sink does not hold the collection, it loses its oldest points
+        fanout.sendMetrics(batch, "jmx", false);
+        assertTrue(slowSink.getDropped() > 0);
+        awaitCaughtUp(fastSink);
+        assertEquals(100, fast.sent.size());
+        assertEquals(0, fastSink.getDropped());
+
+        stalled.countDown();
+        awaitCaughtUp(slowSink);
+        assertTrue(slow.sent.size() < 100);
+        assertTrue(slow.sent.contains("gauge:99"));
+    }
+
+    @Test
+    public void testStalledBlockingSink() throws Exception {
+        fanout = new FanoutReporter(8, TimeUnit.MILLISECONDS.toNanos(200));
+        CountDownLatch stalled = new CountDownLatch(1);
+        RecordingReporter slow = new RecordingReporter(stalled);
+        FanoutReporter.Sink slowSink =
+                fanout.addSink("slow", slow, FanoutReporter.OverflowPolicy.BLOCK);
+
+        final MetricDescriptors descriptors = new MetricDescriptors();
+        final MetricBatch first = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < 100; i++) {
+            first.add(descriptors.register("gauge", "gauge", new String[] {"bean:" + i}), i);
+        }
+        Thread firstInstance =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                fanout.sendMetrics(first, "first", false);
+                            }
+                        });
+        firstInstance.start();
+        while (slowSink.getLag() < 8) {
+            Thread.sleep(10);
+        }
+
+        // The second instance is not held by the first one waiting for the sink, both go on once
+        // the sink is found stalled
+        MetricBatch second = new MetricBatch(descriptors, "jmx");
+        second.add(descriptors.register("other", "gauge", new String[0]), 1);
+        long start = System.nanoTime();
+        fanout.sendMetrics(second, "second", false);
+        firstInstance.join(10000);
+        assertFalse(firstInstance.isAlive());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(slowSink.getDropped() > 0);
+
+        stalled.countDown();
+        awaitCaughtUp(slowSink);
+        assertTrue(slow.sent.contains("gauge:99"));
+    }
+
+    @Test
+    public void testSinkStats() throws Exception {
+        fanout = new FanoutReporter(1024);
+        RecordingReporter recording = new RecordingReporter(new CountDownLatch(0));
+        FanoutReporter.Sink sink =
+                fanout.addSink("recording", recording, FanoutReporter.OverflowPolicy.BLOCK);
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        batch.add(descriptors.register("gauge", "gauge", new String[0]), 1);
+        fanout.sendMetrics(batch, "jmx", false);
+        awaitCaughtUp(sink);
+
+        fanout.publishSinkStats();
+        awaitCaughtUp(sink);
+        fanout.publishSinkStats();
+        awaitCaughtUp(sink);
+        assertEquals(
+                Arrays.asList(
+                        "gauge:1",
+                        FanoutReporter.LAG_METRIC + ":0",
+                        FanoutReporter.DROPPED_METRIC + ":0",
+                        FanoutReporter.SENT_METRIC + ":1",
+                        FanoutReporter.LAG_METRIC + ":0",
+                        FanoutReporter.DROPPED_METRIC + ":0",
+                        // The stats sent since the previous ones
+                        FanoutReporter.SENT_METRIC + ":3"),
+                recording.sent);
+    }
+}
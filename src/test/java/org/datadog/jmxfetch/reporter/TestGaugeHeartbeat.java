@@ -0,0 +1,118 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.junit.Test;
+
+public class TestGaugeHeartbeat {
+
+    /** Records the names of the points sent. */
+    private static class RecordingReporter extends Reporter {
+        private final List<String> sent = new ArrayList<String>();
+
+        @Override
+        protected void sendMetricPoint(
+                String metricType, String metricName, double value, String[] tags) {
+            sent.add(metricName);
+        }
+
+        @Override
+        protected void doSendServiceCheck(
+                String checkName, String status, String message, String[] tags) {}
+
+        @Override
+        public void displayMetricReached() {}
+
+        @Override
+        public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {}
+
+        @Override
+        public void displayInstanceName(Instance instance) {}
+
+        @Override
+        public void displayMatchingAttributeName(
+                JmxAttribute jmxAttribute, int rank, int limit) {}
+    }
+
+    private static int count(List<String> sent, String name) {
+        int count = 0;
+        for (String metricName : sent) {
+            if (metricName.equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testHeartbeat() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        String[] tags = {"instance:jmx"};
+        MetricDescriptor constant = descriptors.register("constant", "gauge", tags);
+        MetricDescriptor changing = descriptors.register("changing", "gauge", tags);
+        MetricDescriptor histogram = descriptors.register("histogram", "histogram", tags);
+        MetricDescriptor count = descriptors.register("count", "monotonic_count", tags);
+
+        RecordingReporter reporter = new RecordingReporter();
+        reporter.setGaugeHeartbeat(3);
+        MetricBatch batch = null;
+        for (int collection = 0; collection < 7; collection++) {
+            batch = new MetricBatch(descriptors, "jmx");
+            batch.add(constant, 42);
+            batch.add(changing, collection);
+            batch.add(histogram, 1);
+            batch.add(count, 10);
+            reporter.sendMetrics(batch, "jmx", false);
+            // The constant gauge is sent at collections 0, 3 and 6
+            assertEquals(collection % 3 == 0 ? 0 : 1, reporter.getSuppressedCount("jmx"));
+        }
+
+        assertEquals(3, count(reporter.sent, "constant"));
+        assertEquals(7, count(reporter.sent, "changing"));
+        assertEquals(7, count(reporter.sent, "histogram"));
+        assertEquals(6, count(reporter.sent, "count"));
+
+        // Cleared, as when the instance is fixed, the gauge is sent again
+        reporter.clearGaugesAggregator("jmx");
+        reporter.sendMetrics(batch, "jmx", false);
+        assertEquals(4, count(reporter.sent, "constant"));
+    }
+
+    @Test
+    public void testDisabled() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor constant = descriptors.register("constant", "gauge", new String[0]);
+        RecordingReporter reporter = new RecordingReporter();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        batch.add(constant, 42);
+        for (int collection = 0; collection < 5; collection++) {
+            reporter.sendMetrics(batch, "jmx", false);
+        }
+        assertEquals(5, count(reporter.sent, "constant"));
+        assertEquals(0, reporter.getSuppressedCount("jmx"));
+    }
+
+    @Test
+    public void testBoundedSeries() {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i <= Reporter.MAX_GAUGE_SERIES; i++) {
+            batch.add(descriptors.register("gauge", "gauge", new String[] {"bean:" + i}), 1);
+        }
+        RecordingReporter reporter = new RecordingReporter();
+        reporter.setGaugeHeartbeat(10);
+        reporter.sendMetrics(batch, "jmx", false);
+
+        // The last sent values are dropped once over the bound: all the gauges are sent
+        reporter.sendMetrics(batch, "jmx", false);
+        assertEquals(0, reporter.getSuppressedCount("jmx"));
+        assertEquals(2 * (Reporter.MAX_GAUGE_SERIES + 1), reporter.sent.size());
+    }
+}
@@ -0,0 +1,86 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.datadog.jmxfetch.Status;
+import org.junit.Test;
+
+public class TestJsonReporter {
+
+    private static MetricBatch gauges(String instanceName, int count) {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < count; i++) {
+            String[] tags = {"instance:" + instanceName, "bean:" + i};
+            batch.add(descriptors.register("test.gauge", "gauge", tags), i);
+        }
+        return batch;
+    }
+
+    /** Returns the metrics of each block of the output. */
+    private static List<JsonNode> parseBlocks(String output) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<JsonNode> blocks = new ArrayList<JsonNode>();
+        String[] parts = output.split("=== JSON ===\n");
+        assertEquals("", parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            blocks.add(mapper.readTree(parts[i]).get(0).get("aggregator").get("metrics"));
+        }
+        return blocks;
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonReporter reporter = new JsonReporter(out);
+
+        reporter.sendMetrics(gauges("first", 3), "first", false);
+        reporter.sendServiceCheck("jmx", Status.STATUS_OK, null, new String[0]);
+        reporter.sendMetrics(gauges("second", 2), "second", false);
+        reporter.sendServiceCheck("jmx", Status.STATUS_OK, null, new String[0]);
+        reporter.sendServiceCheck("jmx", Status.STATUS_ERROR, "Unreachable", new String[0]);
+
+        // Each block only holds the points sent since the previous one
+        List<JsonNode> blocks = parseBlocks(out.toString("UTF-8"));
+        assertEquals(3, blocks.size());
+        assertEquals(3, blocks.get(0).size());
+        assertEquals(2, blocks.get(1).size());
+        assertEquals(0, blocks.get(2).size());
+
+        JsonNode metric = blocks.get(1).get(1);
+        assertEquals("test.gauge", metric.get("metric").asText());
+        assertEquals("gauge", metric.get("type").asText());
+        assertEquals("JMX", metric.get("source_type_name").asText());
+        assertEquals(1.0, metric.get("points").get(0).get(1).asDouble(), 0);
+        assertEquals("instance:second", metric.get("tags").get(0).asText());
+        assertEquals("bean:1", metric.get("tags").get(1).asText());
+    }
+
+    @Test
+    public void testFlushedPerInstance() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonReporter reporter = new JsonReporter(out);
+
+        reporter.sendMetrics(gauges("first", 10), "first", false);
+        int written = out.size();
+        assertTrue(out.toString("UTF-8").contains("bean:9"));
+
+        // The output grows with the points sent, not with the points already written
+        reporter.sendServiceCheck("jmx", Status.STATUS_OK, null, new String[0]);
+        for (int i = 0; i < 10; i++) {
+            int before = out.size();
+            reporter.sendMetrics(gauges("first", 10), "first", false);
+            reporter.sendServiceCheck("jmx", Status.STATUS_OK, null, new String[0]);
+            assertTrue(out.size() - before < 2 * written);
+        }
+        assertEquals(11, parseBlocks(out.toString("UTF-8")).size());
+    }
+}
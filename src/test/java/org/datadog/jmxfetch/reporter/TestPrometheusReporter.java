@@ -0,0 +1,182 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.datadog.jmxfetch.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPrometheusReporter {
+    private PrometheusReporter reporter;
+
+    @Before
+    public void setUp() {
+        reporter = new PrometheusReporter("127.0.0.1", 0);
+    }
+
+    @After
+    public void tearDown() {
+        reporter.close();
+    }
+
+    private String scrape() throws Exception {
+        URL url = new URL("http://127.0.0.1:" + reporter.getPort() + "/metrics");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(PrometheusReporter.CONTENT_TYPE, connection.getContentType());
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            in.close();
+            return body.toString("UTF-8");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testScrape() throws Exception {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor gauge =
+                descriptors.register(
+                        "jvm.heap_memory", "gauge", new String[] {"instance:jmx", "env:a\"b"});
+        MetricDescriptor count =
+                descriptors.register(
+                        "jvm.gc.cms.count", "monotonic_count", new String[] {"instance:jmx"});
+
+        for (int collection = 0; collection < 3; collection++) {
+            MetricBatch batch = new MetricBatch(descriptors, "jmx");
+            batch.add(gauge, 100 + collection);
+            batch.add(count, 10 * collection);
+            reporter.sendMetrics(batch, "jmx", false);
+        }
+        reporter.sendServiceCheck("jmx", Status.STATUS_ERROR, "Unreachable", new String[0]);
+
+        assertEquals(
+                "# TYPE jvm_heap_memory gauge\n"
+                        + "jvm_heap_memory{instance=\"jmx\",env=\"a\\\"b\"} 102\n"
+                        // The deltas are summed, from the second collection on
+                        + "# TYPE jvm_gc_cms_count counter\n"
+                        + "jvm_gc_cms_count_total{instance=\"jmx\"} 20\n"
+                        + "# TYPE jmx_can_connect gauge\n"
+                        + "jmx_can_connect 2\n"
+                        + "# EOF\n",
+                scrape());
+    }
+
+    @Test
+    public void testStaleSeries() throws Exception {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        batch.add(descriptors.register("gauge", "gauge", new String[0]), 1.5);
+        reporter.sendMetrics(batch, "jmx", false);
+
+        String body = scrape();
+        assertTrue(body.contains("gauge 1.5\n"));
+        // Not sent for more than 10 minutes, the series and its family are left out
+        int length = reporter.render(System.currentTimeMillis() + 11 * 60 * 1000L);
+        assertEquals("# EOF\n".length(), length);
+        assertFalse(scrape().isEmpty());
+    }
+
+    @Test
+    public void testStaleWindow() throws Exception {
+        // Covers a gauge heartbeat longer than 10 minutes
+        reporter.setStaleAfter(30 * 60 * 1000L);
+        MetricDescriptors descriptors = new MetricDescriptors();
+        reporter.sendMetricPoint(descriptors.register("gauge", "gauge", new String[0]), 1.5);
+
+        long now = System.currentTimeMillis();
+        assertTrue(reporter.render(now + 11 * 60 * 1000L) > "# EOF\n".length());
+        reporter.reclaim(now + 11 * 60 * 1000L);
+        assertTrue(scrape().contains("gauge 1.5\n"));
+        assertEquals("# EOF\n".length(), reporter.render(now + 31 * 60 * 1000L));
+    }
+
+    @Test
+    public void testReclaimStaleSeries() throws Exception {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricDescriptor count =
+                descriptors.register("jvm.gc.count", "monotonic_count", new String[0]);
+        for (int collection = 0; collection < 3; collection++) {
+            MetricBatch batch = new MetricBatch(descriptors, "jmx");
+            batch.add(count, 10 * collection);
+            reporter.sendMetrics(batch, "jmx", false);
+        }
+        assertTrue(scrape().contains("jvm_gc_count_total 20\n"));
+
+        // The stale series and its family are dropped, sent again they start over
+        reporter.reclaim(System.currentTimeMillis() + 11 * 60 * 1000L);
+        assertEquals("# EOF\n", scrape());
+        reporter.sendMetricPoint(count, 5);
+        assertEquals("# TYPE jvm_gc_count counter\njvm_gc_count_total 5\n# EOF\n", scrape());
+    }
+
+    @Test
+    public void testReuseSlots() {
+        LatestValues values = new LatestValues();
+        int slot = values.allocate();
+        values.set(slot, 1.5, 42L);
+        values.release(slot);
+        // Not reused until the next reclaim, a point may still be set on it
+        assertEquals(slot + 1, values.allocate());
+        values.reuseReleased();
+        assertEquals(slot, values.allocate());
+        assertEquals(0.0, values.get(slot), 0);
+        assertEquals(0L, values.getUpdateTime(slot));
+        assertEquals(2, values.size());
+    }
+
+    private static String format(double value) {
+        byte[] dest = new byte[StatsdFormat.MAX_VALUE_LENGTH];
+        return new String(dest, 0, PrometheusReporter.formatValue(value, dest, 0));
+    }
+
+    @Test
+    public void testFormatValue() throws Exception {
+        assertEquals("102", format(102));
+        assertEquals("-3", format(-3));
+        assertEquals("1.5", format(1.5));
+        assertEquals("1.2E-7", format(1.2e-7));
+        assertEquals("1.0E20", format(1e20));
+        assertEquals("+Inf", format(Double.POSITIVE_INFINITY));
+        assertEquals("-Inf", format(Double.NEGATIVE_INFINITY));
+        assertEquals("NaN", format(Double.NaN));
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        reporter.sendMetricPoint(
+                descriptors.register("jvm.small", "gauge", new String[0]), 1.2e-7);
+        reporter.sendMetricPoint(
+                descriptors.register("jvm.overflow", "gauge", new String[0]),
+                Double.POSITIVE_INFINITY);
+        assertEquals(
+                "# TYPE jvm_small gauge\n"
+                        + "jvm_small 1.2E-7\n"
+                        + "# TYPE jvm_overflow gauge\n"
+                        + "jvm_overflow +Inf\n"
+                        + "# EOF\n",
+                scrape());
+    }
+
+    @Test
+    public void testSanitize() {
+        assertEquals("jvm_heap_memory", PrometheusReporter.sanitizeName("jvm.heap-memory"));
+        assertEquals("_1xx:count", PrometheusReporter.sanitizeName("1xx:count"));
+        assertEquals("host_name", PrometheusReporter.sanitizeLabelName("host:name"));
+    }
+}
@@ -0,0 +1,119 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.junit.Test;
+
+public class TestReporterConcurrency {
+    private static final Logger LOGGER = LogManager.getLogger("TestReporterConcurrency");
+
+    private static final int SERIES = 100;
+    private static final int SENDS = 200;
+
+    /** Sums the points sent, possibly concurrently. */
+    private static class SummingReporter extends Reporter {
+        private final AtomicLong points = new AtomicLong();
+        private final AtomicLong deltas = new AtomicLong();
+
+        @Override
+        protected void sendMetricPoint(
+                String metricType, String metricName, double value, String[] tags) {
+            points.incrementAndGet();
+            if ("monotonic_count".equals(metricType)) {
+                deltas.addAndGet((long) value);
+            }
+        }
+
+        @Override
+        protected void doSendServiceCheck(
+                String checkName, String status, String message, String[] tags) {}
+
+        @Override
+        public void displayMetricReached() {}
+
+        @Override
+        public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {}
+
+        @Override
+        public void displayInstanceName(Instance instance) {}
+
+        @Override
+        public void displayMatchingAttributeName(
+                JmxAttribute jmxAttribute, int rank, int limit) {}
+    }
+
+    /** Sends SENDS growing batches of counters as the given instance. */
+    private static Callable<Void> sender(final Reporter reporter, final String instanceName) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                MetricDescriptors descriptors = new MetricDescriptors();
+                List<MetricDescriptor> counters = new ArrayList<MetricDescriptor>();
+                for (int i = 0; i < SERIES; i++) {
+                    String[] tags = {"instance:" + instanceName, "bean:" + i};
+                    counters.add(descriptors.register("test.count", "monotonic_count", tags));
+                    counters.add(descriptors.register("test.gauge", "gauge", tags));
+                }
+                for (int send = 0; send < SENDS; send++) {
+                    MetricBatch batch = new MetricBatch(descriptors, "jmx");
+                    for (MetricDescriptor descriptor : counters) {
+                        batch.add(descriptor, send);
+                    }
+                    reporter.sendMetrics(batch, instanceName, false);
+                    reporter.incrementServiceCheckCount("jmx");
+                }
+                return null;
+            }
+        };
+    }
+
+    private static long run(SummingReporter reporter, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(sender(reporter, "instance" + i)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentSends() throws Exception {
+        for (int threads : new int[] {1, 4, 16}) {
+            SummingReporter reporter = new SummingReporter();
+            long elapsed = run(reporter, threads);
+
+            // No update is lost: each counter grows by SENDS - 1 in total, every point is sent
+            assertEquals((long) threads * SERIES * (SENDS - 1), reporter.deltas.get());
+            assertEquals((long) threads * SERIES * (2 * SENDS - 1), reporter.points.get());
+            assertEquals(threads * SENDS, reporter.getServiceCheckCount("jmx"));
+
+            LOGGER.info(
+                    threads
+                            + " thread(s): "
+                            + reporter.points.get() * 1000000000L / elapsed
+                            + " points/s");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.datadog.jmxfetch.Instance;
+import org.datadog.jmxfetch.JmxAttribute;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptor;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.junit.Test;
+
+public class TestSeriesStates {
+
+    /** Sums the points sent, to check that they are computed. */
+    private static class SummingReporter extends Reporter {
+        private double sum;
+        private int count;
+
+        @Override
+        protected void sendMetricPoint(
+                String metricType, String metricName, double value, String[] tags) {
+            sum += value;
+            count++;
+        }
+
+        @Override
+        protected void doSendServiceCheck(
+                String checkName, String status, String message, String[] tags) {}
+
+        @Override
+        public void displayMetricReached() {}
+
+        @Override
+        public void displayNonMatchingAttributeName(JmxAttribute jmxAttribute) {}
+
+        @Override
+        public void displayInstanceName(Instance instance) {}
+
+        @Override
+        public void displayMatchingAttributeName(
+                JmxAttribute jmxAttribute, int rank, int limit) {}
+    }
+
+    @Test
+    public void testSlots() {
+        SeriesStates states = new SeriesStates();
+        for (int i = 0; i < 10000; i++) {
+            int slot = states.slotOf(i * 31L, "series." + i);
+            assertTrue(slot < 0);
+            states.set(~slot, i, i * 2.0);
+        }
+        assertEquals(10000, states.size());
+        for (int i = 0; i < 10000; i++) {
+            int slot = states.slotOf(i * 31L, "series." + i);
+            assertEquals(i, states.getTimestamp(slot));
+            assertEquals(i * 2.0, states.getValue(slot), 0);
+        }
+    }
+
+    @Test
+    public void testHashCollisions() {
+        SeriesStates states = new SeriesStates();
+        for (int i = 0; i < 100; i++) {
+            states.set(~states.slotOf(42L, "series." + i), i, i);
+        }
+        // Series sharing a hash keep their own point
+        assertEquals(100, states.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, states.getValue(states.slotOf(42L, "series." + i)), 0);
+        }
+    }
+
+    private static long allocatedSending(
+            com.sun.management.ThreadMXBean allocations, Reporter reporter, MetricBatch batch) {
+        long threadId = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        // The least of several runs, once warmed up, is not skewed by the compilations
+        for (int run = 0; run < 5; run++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100; i++) {
+                reporter.sendMetrics(batch, "jmx", false);
+            }
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(threadId) - before);
+        }
+        return allocated;
+    }
+
+    @Test
+    public void testSendMetricsAllocations() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < 1000; i++) {
+            String[] tags = {"instance:jmx", "bean:" + i};
+            batch.add(descriptors.register("test.rate", "counter", tags), i);
+            batch.add(descriptors.register("test.count", "monotonic_count", tags), i);
+        }
+        SummingReporter reporter = new SummingReporter();
+
+        // Sending an empty batch only allocates the log message
+        long logging =
+                allocatedSending(allocations, reporter, new MetricBatch(descriptors, "jmx"));
+        long allocated = allocatedSending(allocations, reporter, batch) - logging;
+        assertEquals(0.0, reporter.sum, 0);
+        assertTrue(reporter.count > 0);
+        // Boxing the state of each of the 200000 points would account for megabytes
+        assertTrue("Allocated " + allocated + " bytes", allocated < 200000);
+    }
+
+    @Test
+    public void testSeriesHash() {
+        String[] tags = {"instance:jmx", "type:Foo"};
+        assertEquals(
+                MetricDescriptor.seriesHash("test.metric", tags),
+                MetricDescriptor.seriesHash("test.metric", tags.clone()));
+        // The separation of the tags matters
+        assertTrue(
+                MetricDescriptor.seriesHash("test.metric", new String[] {"ab", "c"})
+                        != MetricDescriptor.seriesHash("test.metric", new String[] {"a", "bc"}));
+    }
+}
@@ -0,0 +1,75 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+public class TestStatsdFormat {
+
+    private static String formatDouble(double value) throws Exception {
+        byte[] dest = new byte[StatsdFormat.MAX_VALUE_LENGTH];
+        return new String(dest, 0, StatsdFormat.formatDouble(value, dest, 0), "UTF-8");
+    }
+
+    private static String formatLong(long value) throws Exception {
+        byte[] dest = new byte[StatsdFormat.MAX_VALUE_LENGTH];
+        return new String(dest, 0, StatsdFormat.formatLong(value, dest, 0), "UTF-8");
+    }
+
+    @Test
+    public void testFormatDouble() throws Exception {
+        assertEquals("0", formatDouble(0));
+        assertEquals("0", formatDouble(-0.0000001));
+        assertEquals("42", formatDouble(42));
+        assertEquals("-2.25", formatDouble(-2.25));
+        assertEquals("0.333333", formatDouble(1.0 / 3));
+        assertEquals("0.000005", formatDouble(0.000005));
+        assertEquals("1", formatDouble(0.9999999));
+        assertEquals("123456.000001", formatDouble(123456.000001));
+        assertEquals("10000000000", formatDouble(1e10));
+        assertEquals("100000000000000000000", formatDouble(1e20));
+        assertEquals("NaN", formatDouble(Double.NaN));
+    }
+
+    @Test
+    public void testFormatLikeClient() throws Exception {
+        NumberFormat client = NumberFormat.getInstance(Locale.US);
+        client.setGroupingUsed(false);
+        client.setMaximumFractionDigits(6);
+
+        // Beyond about 16 significant digits, the client stops at the shortest representation
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(9));
+            String expected = client.format(value);
+            if ("-0".equals(expected)) {
+                expected = "0";
+            }
+            assertEquals(expected, formatDouble(value));
+        }
+    }
+
+    @Test
+    public void testFormatLong() throws Exception {
+        assertEquals("0", formatLong(0));
+        assertEquals("7", formatLong(7));
+        assertEquals("-1234567890", formatLong(-1234567890));
+        assertEquals(Long.toString(Long.MAX_VALUE), formatLong(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), formatLong(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testRenderedSeries() throws Exception {
+        assertEquals("jmx.count:", new String(StatsdFormat.metricPrefix("jmx.count"), "UTF-8"));
+        assertEquals(
+                "|c|#a:b,c",
+                new String(
+                        StatsdFormat.metricSuffix("monotonic_count", new String[] {"a:b", "c"}),
+                        "UTF-8"));
+        assertEquals("|g", new String(StatsdFormat.metricSuffix("counter", new String[0]), "UTF-8"));
+        assertEquals("|h", new String(StatsdFormat.metricSuffix("histogram", new String[0]), "UTF-8"));
+    }
+}
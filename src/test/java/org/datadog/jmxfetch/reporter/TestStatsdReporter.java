@@ -0,0 +1,283 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import jnr.unixsocket.UnixDatagramChannel;
+import jnr.unixsocket.UnixSocketAddress;
+import org.datadog.jmxfetch.MetricBatch;
+import org.datadog.jmxfetch.MetricDescriptors;
+import org.datadog.jmxfetch.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStatsdReporter {
+    private DatagramSocket listener;
+
+    @Before
+    public void setUp() throws Exception {
+        listener = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        listener.setSoTimeout(5000);
+        listener.setReceiveBufferSize(1 << 20);
+    }
+
+    @After
+    public void tearDown() {
+        listener.close();
+    }
+
+    /** Receives the datagrams until `count` lines are read, checking their size. */
+    private List<String> receiveLines(int count, int maxPacketSize) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        byte[] buffer = new byte[65536];
+        while (lines.size() < count) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            listener.receive(packet);
+            assertTrue(
+                    "Datagram of " + packet.getLength() + " bytes",
+                    packet.getLength() <= maxPacketSize);
+            String datagram = new String(buffer, 0, packet.getLength(), "UTF-8");
+            lines.addAll(Arrays.asList(datagram.split("\n")));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testPacking() throws Exception {
+        for (int maxPacketSize : new int[] {1432, 8192}) {
+            StatsdReporter reporter =
+                    new StatsdReporter("127.0.0.1", listener.getLocalPort(), maxPacketSize);
+            MetricDescriptors descriptors = new MetricDescriptors();
+            MetricBatch batch = new MetricBatch(descriptors, "jmx");
+            for (int i = 0; i < 1000; i++) {
+                String[] tags = {"instance:jmx", "bean:" + i};
+                batch.add(descriptors.register("test.gauge", "gauge", tags), i + 0.5);
+            }
+            reporter.sendMetrics(batch, "jmx", false);
+
+            List<String> lines = receiveLines(1000, maxPacketSize);
+            assertEquals(1000, lines.size());
+            assertEquals("test.gauge:0.5|g|#instance:jmx,bean:0", lines.get(0));
+            assertEquals("test.gauge:999.5|g|#instance:jmx,bean:999", lines.get(999));
+            // About 40 bytes a line: dozens of lines in each datagram
+            assertTrue(
+                    reporter.getDatagramCount() + " datagrams",
+                    reporter.getDatagramCount() * 20 < 1000);
+        }
+    }
+
+    @Test
+    public void testLineFormats() throws Exception {
+        StatsdReporter reporter = new StatsdReporter("127.0.0.1", listener.getLocalPort());
+        reporter.sendMetricPoint("histogram", "test.histogram", 1.0 / 3, new String[0]);
+        reporter.sendMetricPoint("monotonic_count", "test.count", 42, new String[] {"a:b"});
+        reporter.sendServiceCheck(
+                "jmx", Status.STATUS_WARNING, "line\nm:message", new String[] {"instance:jmx"});
+
+        assertEquals(
+                Arrays.asList(
+                        "test.histogram:0.333333|h",
+                        "test.count:42|c|#a:b",
+                        "_sc|jmx.can_connect|1|#instance:jmx|m:line\\nm\\:message"),
+                receiveLines(3, 1432));
+    }
+
+    @Test
+    public void testLargeLine() throws Exception {
+        StatsdReporter reporter = new StatsdReporter("127.0.0.1", listener.getLocalPort(), 64);
+        StringBuilder tag = new StringBuilder("tag:");
+        for (int i = 0; i < 100; i++) {
+            tag.append('x');
+        }
+        reporter.sendMetricPoint("gauge", "small", 1, new String[0]);
+        reporter.sendMetricPoint("gauge", "large", 2, new String[] {tag.toString()});
+        reporter.flush();
+
+        // The line larger than a packet is sent on its own
+        assertEquals(Arrays.asList("small:1|g"), receiveLines(1, 64));
+        assertEquals(Arrays.asList("large:2|g|#" + tag), receiveLines(1, 65536));
+    }
+
+    private static long allocatedSending(
+            com.sun.management.ThreadMXBean allocations, Reporter reporter, MetricBatch batch) {
+        long threadId = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        // The least of several runs, once warmed up, is not skewed by the compilations
+        for (int run = 0; run < 5; run++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100; i++) {
+                reporter.sendMetrics(batch, "jmx", false);
+            }
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(threadId) - before);
+        }
+        return allocated;
+    }
+
+    @Test
+    public void testSendAllocations() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < 1000; i++) {
+            String[] tags = {"instance:jmx", "bean:" + i};
+            batch.add(descriptors.register("test.gauge", "gauge", tags), i / 7.0);
+            batch.add(descriptors.register("test.histogram", "histogram", tags), i * 1e6);
+        }
+        StatsdReporter reporter = new StatsdReporter("127.0.0.1", listener.getLocalPort());
+
+        // Sending an empty batch only allocates the log message
+        long logging =
+                allocatedSending(allocations, reporter, new MetricBatch(descriptors, "jmx"));
+        long allocated = allocatedSending(allocations, reporter, batch) - logging;
+        // A String for each of the 200000 lines would account for megabytes
+        assertTrue("Allocated " + allocated + " bytes", allocated < 200000);
+    }
+
+    /** Returns a listener bound to a new Unix socket. */
+    private static UnixDatagramChannel bindUnixSocket(File socket) throws Exception {
+        socket.delete();
+        socket.deleteOnExit();
+        UnixDatagramChannel unixListener = UnixDatagramChannel.open();
+        unixListener.bind(new UnixSocketAddress(socket));
+        return unixListener;
+    }
+
+    private static MetricBatch gauges(int count) {
+        MetricDescriptors descriptors = new MetricDescriptors();
+        MetricBatch batch = new MetricBatch(descriptors, "jmx");
+        for (int i = 0; i < count; i++) {
+            String[] tags = {"instance:jmx", "bean:" + i};
+            batch.add(descriptors.register("test.gauge", "gauge", tags), i);
+        }
+        return batch;
+    }
+
+    @Test
+    public void testUnixSocket() throws Exception {
+        File socket = File.createTempFile("dsd", ".socket");
+        final UnixDatagramChannel unixListener = bindUnixSocket(socket);
+        try {
+            StatsdReporter reporter = StatsdReporter.unixSocket(socket.getAbsolutePath());
+            reporter.setBlocking(true);
+            assertEquals(8192, reporter.getMaxPacketSize());
+
+            // Blocking sends wait for the listener to read, no datagram is dropped
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<Integer> received =
+                    executor.submit(
+                            new Callable<Integer>() {
+                                @Override
+                                public Integer call() throws Exception {
+                                    ByteBuffer datagram = ByteBuffer.allocate(65536);
+                                    int lines = 0;
+                                    while (lines < 100000) {
+                                        datagram.clear();
+                                        unixListener.receive(datagram);
+                                        datagram.flip();
+                                        for (int i = 0; i < datagram.limit(); i++) {
+                                            if (datagram.get(i) == '\n') {
+                                                lines++;
+                                            }
+                                        }
+                                        lines++;
+                                    }
+                                    return lines;
+                                }
+                            });
+            MetricBatch batch = gauges(1000);
+            for (int i = 0; i < 100; i++) {
+                reporter.sendMetrics(batch, "jmx", false);
+            }
+            assertEquals(100000, received.get().intValue());
+            executor.shutdown();
+            assertEquals(0, reporter.getDroppedBytes());
+            assertTrue(reporter.getSentBytes() > 0);
+        } finally {
+            unixListener.close();
+            socket.delete();
+        }
+    }
+
+    @Test
+    public void testUnixSocketDropOnFull() throws Exception {
+        File socket = File.createTempFile("dsd", ".socket");
+        UnixDatagramChannel unixListener = bindUnixSocket(socket);
+        try {
+            StatsdReporter reporter = StatsdReporter.unixSocket(socket.getAbsolutePath());
+            assertTrue(!reporter.isBlocking());
+
+            // The listener does not read: the socket buffer fills up, the sends do not block
+            MetricBatch batch = gauges(1000);
+            for (int i = 0; i < 100; i++) {
+                reporter.sendMetrics(batch, "jmx", false);
+            }
+            assertTrue(reporter.getSentBytes() > 0);
+            assertTrue(reporter.getDroppedBytes() > 0);
+        } finally {
+            unixListener.close();
+            socket.delete();
+        }
+    }
+
+    @Test
+    public void testSpoolWhileUnavailable() throws Exception {
+        File socket = File.createTempFile("dsd", ".socket");
+        socket.delete();
+        File spool = File.createTempFile("spool", "");
+        spool.delete();
+        try {
+            StatsdReporter reporter = StatsdReporter.unixSocket(socket.getAbsolutePath());
+            reporter.setSpool(spool, 1 << 20);
+
+            // No server listens: the metrics are spooled
+            reporter.sendMetrics(gauges(10), "jmx", false);
+            assertEquals(0, reporter.getSentBytes());
+            assertEquals(0, reporter.getDroppedBytes());
+            assertTrue(reporter.getSpooledBytes() > 0);
+
+            UnixDatagramChannel unixListener = bindUnixSocket(socket);
+            try {
+                Thread.sleep(100);
+                reporter.sendMetrics(gauges(1), "jmx", false);
+                assertEquals(0, reporter.getSpooledBytes());
+                assertTrue(reporter.getReplayedBytes() > 0);
+
+                ByteBuffer datagram = ByteBuffer.allocate(65536);
+                unixListener.receive(datagram);
+                datagram.clear();
+                unixListener.receive(datagram);
+                datagram.flip();
+                String replayed = StatsdFormat.UTF_8.decode(datagram).toString();
+                // The spooled points keep the time they were collected at
+                assertTrue(replayed, replayed.matches("(?s)test.gauge:0\\|g\\|#.*\\|T\\d+\n.*"));
+            } finally {
+                unixListener.close();
+            }
+        } finally {
+            socket.delete();
+            for (File file : spool.listFiles()) {
+                file.delete();
+            }
+            spool.delete();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.datadog.jmxfetch.reporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStatsdSpool {
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("spool", "");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static ByteBuffer datagram(String lines) {
+        return ByteBuffer.wrap(lines.getBytes(StatsdFormat.UTF_8));
+    }
+
+    private static String next(StatsdSpool spool) {
+        ByteBuffer record = spool.peek();
+        if (record == null) {
+            return null;
+        }
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        spool.advance();
+        return new String(bytes, StatsdFormat.UTF_8);
+    }
+
+    @Test
+    public void testTimestampedLines() throws Exception {
+        StatsdSpool spool = new StatsdSpool(directory, 1 << 20, 1 << 16);
+        ByteBuffer datagram =
+                datagram(
+                        "jvm.heap:42|g|#instance:jmx\n"
+                                + "jvm.gc.count:3|c\n"
+                                + "jvm.latency:1.5|h|#instance:jmx\n"
+                                + "_sc|jmx.can_connect|0|#instance:jmx");
+        spool.append(datagram, 1600000000L, 1432);
+        assertEquals(0, datagram.position());
+
+        // Only the gauges and counts keep their time, the other lines are dropped
+        assertEquals(
+                "jvm.heap:42|g|#instance:jmx|T1600000000\njvm.gc.count:3|c|T1600000000",
+                next(spool));
+        assertNull(next(spool));
+        assertEquals(0, spool.getPendingBytes());
+    }
+
+    @Test
+    public void testRecordsFitPackets() throws Exception {
+        StatsdSpool spool = new StatsdSpool(directory, 1 << 20, 1 << 16);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            lines.append(i == 0 ? "" : "\n").append("gauge:").append(i).append("|g");
+        }
+        spool.append(datagram(lines.toString()), 1600000000L, 100);
+
+        int count = 0;
+        String record;
+        while ((record = next(spool)) != null) {
+            assertTrue(record.length() <= 100);
+            count += record.split("\n").length;
+        }
+        assertEquals(100, count);
+    }
+
+    @Test
+    public void testRotationAndReopen() throws Exception {
+        // Segments of 256 bytes, up to 3 of them
+        StatsdSpool spool = new StatsdSpool(directory, 768, 256);
+        for (int i = 0; i < 30; i++) {
+            spool.append(datagram("gauge:" + i + "|g"), 1600000000L, 1432);
+        }
+        // The oldest segments were dropped
+        assertTrue(spool.getDroppedBytes() > 0);
+        assertEquals(3, directory.listFiles().length);
+        String first = next(spool);
+        assertTrue(first, !first.startsWith("gauge:0|"));
+        long pending = spool.getPendingBytes();
+
+        // The records left, and where the replay stopped, are recovered
+        StatsdSpool reopened = new StatsdSpool(directory, 768, 256);
+        assertEquals(pending, reopened.getPendingBytes());
+        String last = null;
+        String record;
+        while ((record = next(reopened)) != null) {
+            assertTrue(!record.equals(first));
+            last = record;
+        }
+        assertEquals("gauge:29|g|T1600000000", last);
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void testConsumedSegments() throws Exception {
+        StatsdSpool spool = new StatsdSpool(directory, 768, 256);
+        for (int i = 0; i < 15; i++) {
+            spool.append(datagram("gauge:" + i + "|g"), 1600000000L, 1432);
+        }
+        File first = new File(directory, "spool-0.seg");
+        RandomAccessFile raf = new RandomAccessFile(first, "rw");
+        MappedByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        raf.close();
+        while (next(spool) != null) {
+            continue;
+        }
+        // Marked as consumed before being deleted, in case it can not be while mapped
+        assertFalse(first.exists());
+        assertEquals(-1, header.getInt(4));
+
+        // A consumed segment left behind is deleted, not replayed
+        spool.append(datagram("gauge:42|g"), 1600000000L, 1432);
+        File last = directory.listFiles()[0];
+        raf = new RandomAccessFile(last, "rw");
+        raf.seek(4);
+        raf.writeInt(-1);
+        raf.close();
+        StatsdSpool reopened = new StatsdSpool(directory, 768, 256);
+        assertEquals(0, reopened.getPendingBytes());
+        assertNull(reopened.peek());
+        assertFalse(last.exists());
+    }
+}